@@ -0,0 +1,919 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.io.ObjectStreamException;
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * Compact tree backend for very large structures, stored as a struct of arrays instead of one object per Node. Every
+ * Node is an int id indexing parallel arrays - parent, first child, last child, next sibling and number of children
+ * as ints, dates as epoch millis, titles and languages as ids in a pool of distinct Strings, and contents as Strings
+ * kept in the shared {@link ContentStore}. A Node takes about 50 bytes this way, instead of the 150+ bytes of a
+ * {@link Folder} or {@link Snippet} with their Dates, title and list of children.
+ *
+ * Implements TreeModel, so the structure can be shown with {@link javax.swing.JTree}. The model hands out
+ * {@link View}s - lightweight Nodes created on demand, which only hold the tree and an id and read everything else
+ * from the arrays. Views of the same id are equal, so the JTree keeps its expansion state no matter how many times
+ * they're recreated. Searches scan the arrays directly and only create views for the matches.
+ *
+ * Contents are given back to the ContentStore when their Nodes are removed, or once the tree is collected.
+ *
+ * Ids of removed Nodes aren't reused. Not thread-safe - meant to be used from the event dispatch thread, like the
+ * JTree showing it.
+ */
+public class CompactTree implements TreeModel {
+
+    static final int NONE = -1; // id of a missing Node, e.g. of the parent of the root
+    static final int ROOT = 0; // id of the root Folder
+    private static final byte FOLDER = 0;
+    private static final byte SNIPPET = 1;
+    private static final byte REMOVED = 2;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Cleaner cleaner = Cleaner.create(); // releases contents of collected trees
+
+    /**
+     * Contents held by a tree, given back to the ContentStore once the tree is collected. Doesn't refer to the tree,
+     * so it doesn't keep it reachable.
+     */
+    private static final class StoreReference implements Runnable {
+        volatile String[] contents; // id -> contents, replaced whenever the tree grows
+
+        @Override
+        public void run() {
+            for (String content : contents)
+                if (content != null)
+                    ContentStore.getShared().release(content);
+        }
+    }
+
+    /**
+     * Pool of distinct Strings, each kept once and referred to by an int id. Case-folded forms are computed once per
+     * distinct String.
+     */
+    static final class StringPool {
+        private final HashMap<String, Integer> ids = new HashMap<>(); // String -> id
+        private final ArrayList<String> strings = new ArrayList<>(); // id -> String
+        private final ArrayList<String> folded = new ArrayList<>(); // id -> case-folded String, null if not computed
+        private long chars = 0; // total length of all Strings
+
+        int intern(String string) {
+            Integer id = ids.get(string);
+            if (id == null) {
+                id = strings.size();
+                ids.put(string, id);
+                strings.add(string);
+                folded.add(null);
+                chars += string.length();
+            }
+            return id;
+        }
+
+        String get(int id) {
+            return strings.get(id);
+        }
+
+        String getFolded(int id) {
+            String out = folded.get(id);
+            if (out == null) {
+                out = SearchTerm.fold(strings.get(id));
+                folded.set(id, out);
+            }
+            return out;
+        }
+
+        /**
+         * @return set of ids of the Strings containing the term
+         */
+        BitSet matching(SearchTerm term) {
+            BitSet out = new BitSet(strings.size());
+            for (int id = 0; id < strings.size(); id++)
+                if (term.matchesFolded(getFolded(id)))
+                    out.set(id);
+            return out;
+        }
+
+        int size() {
+            return strings.size();
+        }
+
+        /**
+         * @return estimated heap size of the pool, in bytes
+         */
+        long getFootprint() {
+            // per String: the String and its array, a map entry with a boxed id, slots in the lists; Latin-1 chars
+            return strings.size() * (24L + 16 + 32 + 16 + 2 * 4) + chars;
+        }
+    }
+
+    /**
+     * Lightweight Node standing for a single Node of a CompactTree. Views hold nothing but the tree and the id,
+     * everything else is read from the tree when asked for - creating one allocates nothing else. Views of the same
+     * id are equal. Traversals walk the arrays, not Folders. Views can't be attached to other Nodes or listened to,
+     * listen to the tree instead. A view serializes as a regular Folder or Snippet with everything below it.
+     */
+    public final class View extends Node {
+        private static final long serialVersionUID = 1L;
+
+        private final int id; // id of the Node within the tree
+
+        private View(int id) {
+            super(null, null, null);
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+        public CompactTree getTree() {
+            return CompactTree.this;
+        }
+        public boolean isFolder() {
+            return kinds[id] == FOLDER;
+        }
+
+        @Override
+        public String getTitle() {
+            return CompactTree.this.getTitle(id);
+        }
+        @Override
+        public Node getParent() {
+            return (parents[id] == NONE) ? null : getView(parents[id]);
+        }
+        @Override
+        public Date getDateCreated() {
+            return new Date(created_millis[id]);
+        }
+        @Override
+        public Date getDateEdited() {
+            return new Date(edited_millis[id]);
+        }
+        @Override
+        public long getTimeCreated() {
+            return created_millis[id];
+        }
+        @Override
+        public long getTimeEdited() {
+            return edited_millis[id];
+        }
+        @Override
+        public void setDateCreated(Date date) {
+            created_millis[id] = date.getTime();
+        }
+        @Override
+        public void setDateEdited(Date date) {
+            edited_millis[id] = date.getTime();
+        }
+        @Override
+        public String getFoldedTitle() {
+            return title_pool.getFolded(title_ids[id]);
+        }
+
+        /**
+         * @return language of a Snippet, null for a Folder
+         */
+        public String getLang() {
+            return CompactTree.this.getLang(id);
+        }
+
+        /**
+         * @return contents of a Snippet, null for a Folder
+         */
+        public String getContent() {
+            return CompactTree.this.getContent(id);
+        }
+
+        @Override
+        public void setTitle(String title) {
+            rename(id, title);
+        }
+
+        /**
+         * @throws UnsupportedOperationException always, views stay where their Node is in the tree
+         */
+        @Override
+        public void setParent(Node parent) {
+            throw new UnsupportedOperationException("Views of a CompactTree can't be moved");
+        }
+
+        /**
+         * @throws UnsupportedOperationException always, changes are reported by the tree's TreeModelListeners
+         */
+        @Override
+        public void addNodeListener(NodeListener l) {
+            throw new UnsupportedOperationException("Views of a CompactTree can't be listened to");
+        }
+
+        @Override
+        public int getSubtreeSize() {
+            return CompactTree.this.getSubtreeSize(id);
+        }
+
+        @Override
+        public String getPath() {
+            StringBuilder path = new StringBuilder();
+            for (int current = id; current != NONE; current = parents[current])
+                path.insert(0, CompactTree.this.getTitle(current)).insert(0, (parents[current] == NONE) ? "" : "/");
+            return path.toString();
+        }
+
+        @Override
+        public TreePath getPathArray() {
+            int depth = 0;
+            for (int current = id; current != NONE; current = parents[current])
+                depth++;
+            Object[] path = new Object[depth];
+            for (int current = id; current != NONE; current = parents[current])
+                path[--depth] = getView(current);
+            return new TreePath(path);
+        }
+
+        @Override
+        public Node getNodeFromPath(String[] path, int offset) {
+            int current = id;
+            for (int i = offset; i < path.length && current != NONE; i++)
+                current = findChild(current, path[i]);
+            return (current == NONE) ? null : getView(current);
+        }
+
+        @Override
+        public Stream<Node> stream() {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new ViewIterator(id),
+                    Spliterator.ORDERED | Spliterator.NONNULL), false);
+        }
+
+        /**
+         * {@inheritDoc} Follows first child and next sibling links, creating a view per visited Node.
+         */
+        @Override
+        public boolean walk(NodeVisitor visitor) {
+            Deque<Integer> entered = new ArrayDeque<>(); // ids of entered Folders, waiting to be left
+            int next = id;
+            while (next != NONE) {
+                int depth = entered.size();
+                NodeVisitor.Control control = visitor.enter(getView(next), depth);
+                if (control == NodeVisitor.Control.STOP)
+                    return false;
+                if (control == NodeVisitor.Control.CONTINUE && first_children[next] != NONE) {
+                    entered.push(next);
+                    next = first_children[next];
+                    continue;
+                }
+                visitor.leave(getView(next), depth);
+
+                // go on with the next sibling, leaving the Folders whose children are all done
+                int done = next;
+                next = NONE;
+                while (done != id) {
+                    if (next_siblings[done] != NONE) {
+                        next = next_siblings[done];
+                        break;
+                    }
+                    done = entered.pop();
+                    visitor.leave(getView(done), entered.size());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected String getStructure(int depth) {
+            StringBuilder out = new StringBuilder();
+            Deque<int[]> stack = new ArrayDeque<>(); // {id, depth}
+            stack.push(new int[] {id, depth});
+            while (!stack.isEmpty()) {
+                int[] top = stack.pop();
+                if (out.length() > 0)
+                    out.append('\n');
+                out.append("    ".repeat(top[1])).append("|-- ").append(CompactTree.this.getTitle(top[0]));
+                // pushed last to first, so they're popped in order
+                int[] children = getChildIds(top[0]);
+                for (int i = children.length - 1; i >= 0; i--)
+                    stack.push(new int[] {children[i], top[1] + 1});
+            }
+            return out.toString();
+        }
+
+        @Override
+        public boolean matchesTitle(SearchTerm term) {
+            return term.matchesFolded(title_pool.getFolded(title_ids[id]));
+        }
+
+        @Override
+        public boolean matchesContent(SearchTerm term) {
+            return contents[id] != null && term.matches(contents[id]);
+        }
+
+        @Override
+        public ArrayList<Node> searchTitle(SearchTerm term) {
+            return CompactTree.this.searchTitle(id, term);
+        }
+
+        @Override
+        public ArrayList<Node> searchContent(SearchTerm term) {
+            return CompactTree.this.searchContent(id, term);
+        }
+
+        /**
+         * @return regular Folder or Snippet with everything below it
+         */
+        @Override
+        public Object clone() {
+            return toNode(id);
+        }
+
+        @Override
+        public int compareTo(Node anotherNode) {
+            return getTitle().compareTo(anotherNode.getTitle());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof View && ((View) other).id == id && ((View) other).getTree() == CompactTree.this;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return getTitle();
+        }
+
+        private Object writeReplace() throws ObjectStreamException {
+            return toNode(id);
+        }
+    }
+
+    /**
+     * Pre-order iterator over the views of a subtree, following first child and next sibling links - no stack
+     * needed.
+     */
+    private final class ViewIterator implements Iterator<Node> {
+        private final int root; // id the iteration started at
+        private int next; // id of the next returned Node, NONE once done
+
+        ViewIterator(int root) {
+            this.root = root;
+            this.next = root;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NONE;
+        }
+
+        @Override
+        public Node next() {
+            if (next == NONE)
+                throw new NoSuchElementException();
+            int out = next;
+            next = nextInOrder(out, root);
+            return getView(out);
+        }
+    }
+
+    //region Fields
+    private int size = 0; // number of ids handed out, removed Nodes included
+    private int removed = 0; // number of removed Nodes
+    private byte[] kinds = new byte[INITIAL_CAPACITY]; // id -> FOLDER, SNIPPET or REMOVED
+    private int[] parents = new int[INITIAL_CAPACITY]; // id -> id of the parent, NONE for the root
+    private int[] first_children = new int[INITIAL_CAPACITY]; // id -> id of the first child, NONE if none
+    private int[] last_children = new int[INITIAL_CAPACITY]; // id -> id of the last child, NONE if none
+    private int[] next_siblings = new int[INITIAL_CAPACITY]; // id -> id of the next sibling, NONE if last
+    private int[] child_counts = new int[INITIAL_CAPACITY]; // id -> number of children
+    private int[] title_ids = new int[INITIAL_CAPACITY]; // id -> id of the title in the pool
+    private int[] lang_ids = new int[INITIAL_CAPACITY]; // id -> id of the language in the pool, NONE for Folders
+    private long[] created_millis = new long[INITIAL_CAPACITY]; // id -> date of creation, epoch millis
+    private long[] edited_millis = new long[INITIAL_CAPACITY]; // id -> date of last edit, epoch millis
+    private String[] contents = new String[INITIAL_CAPACITY]; // id -> contents from the ContentStore, null for Folders
+    private final StoreReference stored = new StoreReference(); // releases the contents once the tree is collected
+    private final StringPool title_pool = new StringPool(); // distinct titles
+    private final StringPool lang_pool = new StringPool(); // distinct languages
+    private final EventListenerList listener_list = new EventListenerList(); // tree model listeners
+    // last child looked up by index, so walking the children in order doesn't walk the sibling list from the start
+    private int cursor_parent = NONE;
+    private int cursor_index = 0;
+    private int cursor_child = NONE;
+    //endregion
+
+    //region Constructors
+    public CompactTree() {
+        this("Root");
+    }
+    public CompactTree(String root_title) {
+        stored.contents = contents;
+        cleaner.register(this, stored);
+        add(NONE, FOLDER, root_title, NONE, null, System.currentTimeMillis());
+    }
+
+    /**
+     * Copies an object structure into a new compact tree, keeping titles, dates, languages and contents.
+     * @param root root of the copied structure, becomes the root of the tree
+     * @return new tree
+     */
+    public static CompactTree of(Node root) {
+        CompactTree tree = new CompactTree(root.getTitle());
+        tree.created_millis[ROOT] = root.getTimeCreated();
+        tree.edited_millis[ROOT] = root.getTimeEdited();
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Integer> parents = new ArrayDeque<>();
+        if (root instanceof Folder) {
+            for (Node child : ((Folder) root).getChildren()) {
+                nodes.add(child);
+                parents.add(ROOT);
+            }
+        }
+        // breadth-first, so children are appended in order
+        while (!nodes.isEmpty()) {
+            Node node = nodes.poll();
+            int parent_id = parents.poll();
+            int id;
+            if (node instanceof Snippet) {
+                Snippet snippet = (Snippet) node;
+                id = tree.add(parent_id, SNIPPET, snippet.getTitle(), tree.internLang(snippet.getLang()),
+                        ContentStore.getShared().acquire(snippet.get()), node.getTimeCreated());
+            } else {
+                id = tree.add(parent_id, FOLDER, node.getTitle(), NONE, null, node.getTimeCreated());
+                for (Node child : ((Folder) node).getChildren()) {
+                    nodes.add(child);
+                    parents.add(id);
+                }
+            }
+            tree.edited_millis[id] = node.getTimeEdited();
+        }
+        return tree;
+    }
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of Nodes in the tree, the root included
+     */
+    public int size() {
+        return size - removed;
+    }
+
+    public View getView(int id) {
+        return new View(id);
+    }
+    public String getTitle(int id) {
+        return title_pool.get(title_ids[id]);
+    }
+    public boolean isFolder(int id) {
+        return kinds[id] == FOLDER;
+    }
+    public int getParentId(int id) {
+        return parents[id];
+    }
+    public long getCreated(int id) {
+        return created_millis[id];
+    }
+    public long getEdited(int id) {
+        return edited_millis[id];
+    }
+
+    /**
+     * @return language of a Snippet, null for a Folder or a Snippet without one
+     */
+    public String getLang(int id) {
+        return (lang_ids[id] == NONE) ? null : lang_pool.get(lang_ids[id]);
+    }
+
+    /**
+     * @return contents of a Snippet, null for a Folder
+     */
+    public String getContent(int id) {
+        return contents[id];
+    }
+
+    public int getChildCount(int id) {
+        return child_counts[id];
+    }
+
+    /**
+     * Finds a child by index. Looking up children one after another, as a JTree does, only steps to the next sibling
+     * each time.
+     * @param parent_id id of the parent
+     * @param index index of the child
+     * @return id of the child, NONE if there is no such child
+     */
+    public int getChildId(int parent_id, int index) {
+        if (index < 0 || index >= child_counts[parent_id])
+            return NONE;
+        int i = 0;
+        int child = first_children[parent_id];
+        if (cursor_parent == parent_id && cursor_index <= index) {
+            i = cursor_index;
+            child = cursor_child;
+        }
+        for (; i < index; i++)
+            child = next_siblings[child];
+        cursor_parent = parent_id;
+        cursor_index = index;
+        cursor_child = child;
+        return child;
+    }
+
+    /**
+     * @return ids of all children, in order
+     */
+    public int[] getChildIds(int parent_id) {
+        int[] out = new int[child_counts[parent_id]];
+        int i = 0;
+        for (int child = first_children[parent_id]; child != NONE; child = next_siblings[child])
+            out[i++] = child;
+        return out;
+    }
+
+    /**
+     * @return index of the child among the children of the parent, -1 if it's not its child
+     */
+    public int indexOf(int parent_id, int child_id) {
+        if (child_id < 0 || child_id >= size || parents[child_id] != parent_id || kinds[child_id] == REMOVED)
+            return -1;
+        int i = 0;
+        int child = first_children[parent_id];
+        if (cursor_parent == parent_id) {
+            // the cursor is likely close, e.g. right after the child was looked up by index
+            for (int j = cursor_index, c = cursor_child; c != NONE; c = next_siblings[c], j++)
+                if (c == child_id)
+                    return j;
+        }
+        for (; child != NONE; child = next_siblings[child], i++)
+            if (child == child_id)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return number of Nodes in the subtree, its root included
+     */
+    public int getSubtreeSize(int id) {
+        int count = 0;
+        for (int current = id; current != NONE; current = nextInOrder(current, id))
+            count++;
+        return count;
+    }
+
+    /**
+     * Estimates the heap taken by the tree - its arrays at their current capacity and the pools. Contents are kept
+     * in the ContentStore, only references to them are counted.
+     * @return estimated size in bytes
+     */
+    public long getFootprint() {
+        long capacity = kinds.length;
+        // 1 byte kind, 7 ints, 2 longs, 1 compressed reference per slot, plus headers of the 11 arrays
+        return capacity * (1 + 7 * 4 + 2 * 8 + 4) + 11 * 16 + title_pool.getFootprint() + lang_pool.getFootprint();
+    }
+
+    /**
+     * @return number of distinct titles
+     */
+    public int getDistinctTitles() {
+        return title_pool.size();
+    }
+    //endregion
+
+    //region Mutators
+    /**
+     * Appends a new Folder to the children of a Folder and notifies listeners.
+     * @param parent_id id of the parent Folder
+     * @param title title of the new Folder
+     * @return id of the new Folder
+     */
+    public int addFolder(int parent_id, String title) {
+        checkFolder(parent_id);
+        int id = add(parent_id, FOLDER, title, NONE, null, System.currentTimeMillis());
+        fireNodesInserted(parent_id, id);
+        return id;
+    }
+
+    /**
+     * Appends a new Snippet to the children of a Folder and notifies listeners.
+     * @param parent_id id of the parent Folder
+     * @param title title of the new Snippet
+     * @param lang language of the new Snippet
+     * @param content contents of the new Snippet
+     * @return id of the new Snippet
+     */
+    public int addSnippet(int parent_id, String title, String lang, String content) {
+        checkFolder(parent_id);
+        int id = add(parent_id, SNIPPET, title, internLang(lang),
+                ContentStore.getShared().acquire(content), System.currentTimeMillis());
+        fireNodesInserted(parent_id, id);
+        return id;
+    }
+
+    /**
+     * Removes a Node and everything below it, and notifies listeners.
+     * @param id id of the removed Node, not the root
+     */
+    public void remove(int id) {
+        if (id == ROOT || kinds[id] == REMOVED)
+            throw new IllegalArgumentException("Node " + id + " can't be removed.");
+        int parent_id = parents[id];
+        int index = indexOf(parent_id, id);
+        View view = getView(id);
+        TreePath path = getView(parent_id).getPathArray();
+
+        // unlink from the siblings
+        int previous = (index == 0) ? NONE : getChildId(parent_id, index - 1);
+        if (previous == NONE)
+            first_children[parent_id] = next_siblings[id];
+        else
+            next_siblings[previous] = next_siblings[id];
+        if (last_children[parent_id] == id)
+            last_children[parent_id] = previous;
+        child_counts[parent_id]--;
+        cursor_parent = NONE;
+
+        // mark the subtree removed, giving its contents back to the store
+        for (int current = id; current != NONE; current = nextInOrder(current, id)) {
+            ContentStore.getShared().release(contents[current]);
+            contents[current] = null;
+            kinds[current] = REMOVED;
+            removed++;
+        }
+        parents[id] = NONE;
+        next_siblings[id] = NONE;
+        edited_millis[parent_id] = System.currentTimeMillis();
+
+        TreeModelEvent e = new TreeModelEvent(this, path, new int[] {index}, new Object[] {view});
+        for (EventListener listener : listener_list.getListeners(TreeModelListener.class))
+            ((TreeModelListener) listener).treeNodesRemoved(e);
+    }
+
+    /**
+     * Renames a Node and notifies listeners.
+     * @param id id of the renamed Node
+     * @param new_title new title
+     */
+    public void rename(int id, String new_title) {
+        title_ids[id] = title_pool.intern(new_title);
+        edited_millis[id] = System.currentTimeMillis();
+        fireNodeChanged(id);
+    }
+
+    /**
+     * Replaces the contents of a Snippet and notifies listeners.
+     * @param id id of the Snippet
+     * @param new_content new contents
+     */
+    public void setContent(int id, String new_content) {
+        if (kinds[id] != SNIPPET)
+            throw new IllegalArgumentException("Node " + id + " is not a Snippet.");
+        String old_content = contents[id];
+        contents[id] = ContentStore.getShared().acquire(new_content);
+        ContentStore.getShared().release(old_content);
+        edited_millis[id] = System.currentTimeMillis();
+        fireNodeChanged(id);
+    }
+
+    private int add(int parent_id, byte node_kind, String node_title, int node_lang, String node_content,
+                    long millis) {
+        if (size == kinds.length)
+            grow();
+        int id = size++;
+        kinds[id] = node_kind;
+        parents[id] = parent_id;
+        first_children[id] = NONE;
+        last_children[id] = NONE;
+        next_siblings[id] = NONE;
+        child_counts[id] = 0;
+        title_ids[id] = title_pool.intern(node_title);
+        lang_ids[id] = node_lang;
+        contents[id] = node_content;
+        created_millis[id] = millis;
+        edited_millis[id] = millis;
+        if (parent_id != NONE) {
+            if (last_children[parent_id] == NONE)
+                first_children[parent_id] = id;
+            else
+                next_siblings[last_children[parent_id]] = id;
+            last_children[parent_id] = id;
+            child_counts[parent_id]++;
+            edited_millis[parent_id] = millis;
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        first_children = Arrays.copyOf(first_children, capacity);
+        last_children = Arrays.copyOf(last_children, capacity);
+        next_siblings = Arrays.copyOf(next_siblings, capacity);
+        child_counts = Arrays.copyOf(child_counts, capacity);
+        title_ids = Arrays.copyOf(title_ids, capacity);
+        lang_ids = Arrays.copyOf(lang_ids, capacity);
+        created_millis = Arrays.copyOf(created_millis, capacity);
+        edited_millis = Arrays.copyOf(edited_millis, capacity);
+        contents = Arrays.copyOf(contents, capacity);
+        stored.contents = contents;
+    }
+
+    private int internLang(String node_lang) {
+        return (node_lang == null) ? NONE : lang_pool.intern(node_lang);
+    }
+
+    private void checkFolder(int id) {
+        if (id < 0 || id >= size || kinds[id] != FOLDER)
+            throw new IllegalArgumentException("Node " + id + " is not a Folder.");
+    }
+    //endregion
+
+    //region Search
+    /**
+     * Non-case-sensitive search on titles of a Node and all Nodes below it. Every distinct title is checked only
+     * once, the Nodes are then matched by title id.
+     * @param id id of the searched subtree
+     * @param term precompiled search term
+     * @return ArrayList of views of matching Nodes, in structure order
+     */
+    public ArrayList<Node> searchTitle(int id, SearchTerm term) {
+        BitSet matching = title_pool.matching(term);
+        ArrayList<Node> found = new ArrayList<>();
+        for (int current = id; current != NONE; current = nextInOrder(current, id))
+            if (matching.get(title_ids[current]))
+                found.add(getView(current));
+        return found;
+    }
+
+    /**
+     * Non-case-sensitive search on contents of the Snippets within a Node. Snippets with the same contents share
+     * the String, so the result of a match is reused for them.
+     * @param id id of the searched subtree
+     * @param term precompiled search term
+     * @return ArrayList of views of matching Snippets, in structure order
+     */
+    public ArrayList<Node> searchContent(int id, SearchTerm term) {
+        ArrayList<Node> found = new ArrayList<>();
+        String last = null; // contents checked last
+        boolean last_matched = false;
+        for (int current = id; current != NONE; current = nextInOrder(current, id)) {
+            String text = contents[current];
+            if (text == null)
+                continue;
+            if (text != last) {
+                last = text;
+                last_matched = term.matches(text);
+            }
+            if (last_matched)
+                found.add(getView(current));
+        }
+        return found;
+    }
+
+    /**
+     * @return id of the first child with the title, NONE if there is none
+     */
+    private int findChild(int parent_id, String child_title) {
+        for (int child = first_children[parent_id]; child != NONE; child = next_siblings[child])
+            if (title_pool.get(title_ids[child]).equals(child_title))
+                return child;
+        return NONE;
+    }
+
+    /**
+     * Steps to the next Node in pre-order within a subtree.
+     * @param id current Node
+     * @param root root of the subtree
+     * @return id of the next Node, NONE once the subtree is done
+     */
+    private int nextInOrder(int id, int root) {
+        if (first_children[id] != NONE)
+            return first_children[id];
+        for (int current = id; current != root; current = parents[current])
+            if (next_siblings[current] != NONE)
+                return next_siblings[current];
+        return NONE;
+    }
+    //endregion
+
+    /**
+     * Copies a Node and everything below it into a regular object structure, e.g. to export or edit it.
+     * @param id id of the copied Node
+     * @return new Folder or Snippet
+     */
+    public Node toNode(int id) {
+        Node root = newNode(id);
+        Deque<Integer> ids = new ArrayDeque<>();
+        Deque<Folder> folders = new ArrayDeque<>();
+        if (root instanceof Folder) {
+            ids.push(id);
+            folders.push((Folder) root);
+        }
+        while (!ids.isEmpty()) {
+            int current = ids.pop();
+            Folder folder = folders.pop();
+            for (int child = first_children[current]; child != NONE; child = next_siblings[child]) {
+                Node node = newNode(child);
+                folder.addChild(node);
+                if (node instanceof Folder) {
+                    ids.push(child);
+                    folders.push((Folder) node);
+                }
+            }
+            folder.setDateEdited(new Date(edited_millis[current]));
+        }
+        return root;
+    }
+
+    private Node newNode(int id) {
+        Node node = (kinds[id] == SNIPPET) ? new Snippet(getTitle(id), getLang(id), contents[id])
+                : new Folder(getTitle(id));
+        node.setDateCreated(new Date(created_millis[id]));
+        node.setDateEdited(new Date(edited_millis[id]));
+        return node;
+    }
+
+    //region TreeModel Overrides
+    @Override
+    public Object getRoot() {
+        return getView(ROOT);
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        int child = getChildId(((View) parent).id, index);
+        return (child == NONE) ? null : getView(child);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return child_counts[((View) parent).id];
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return kinds[((View) node).id] != FOLDER;
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (!(parent instanceof View) || !(child instanceof View))
+            return -1;
+        return indexOf(((View) parent).id, ((View) child).id);
+    }
+
+    /**
+     * Renames the Node at the end of the path.
+     * @param path path to the renamed Node
+     * @param newValue new title
+     */
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        rename(((View) path.getLastPathComponent()).id, newValue.toString());
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listener_list.add(TreeModelListener.class, l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listener_list.remove(TreeModelListener.class, l);
+    }
+    //endregion
+
+    private void fireNodesInserted(int parent_id, int id) {
+        if (listener_list.getListenerCount() == 0)
+            return;
+        TreeModelEvent e = new TreeModelEvent(this, getView(parent_id).getPathArray(),
+                new int[] {child_counts[parent_id] - 1}, new Object[] {getView(id)});
+        for (EventListener listener : listener_list.getListeners(TreeModelListener.class))
+            ((TreeModelListener) listener).treeNodesInserted(e);
+    }
+
+    private void fireNodeChanged(int id) {
+        if (listener_list.getListenerCount() == 0)
+            return;
+        TreeModelEvent e = (parents[id] == NONE) ? new TreeModelEvent(this, new Object[] {getView(id)}, null, null)
+                : new TreeModelEvent(this, getView(parents[id]).getPathArray(),
+                        new int[] {indexOf(parents[id], id)}, new Object[] {getView(id)});
+        for (EventListener listener : listener_list.getListeners(TreeModelListener.class))
+            ((TreeModelListener) listener).treeNodesChanged(e);
+    }
+}
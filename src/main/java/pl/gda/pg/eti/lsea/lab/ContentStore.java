@@ -0,0 +1,376 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Content-addressed, reference-counted store of Snippet bodies. Bodies are keyed by their SHA-256 digest, so
+ * identical contents are kept as a single String no matter how many Snippets hold them. As Snippets share the
+ * instance, serialization writes every distinct body only once per exported .snip file as well.
+ *
+ * A body is referenced by every live Snippet holding it - Snippets take a reference when created, deserialized or
+ * edited, and give it back when edited again or garbage collected. Bodies nobody references are dropped.
+ *
+ * Bodies can be kept off the heap as well, in a memory-mapped file (see {@link #setStorage(Storage)}) - Snippets
+ * then only hold the offset and length of their contents, which are decoded on demand. Deduplication works the same
+ * in both modes.
+ */
+public class ContentStore {
+
+    /**
+     * Where newly stored bodies are kept.
+     */
+    public enum Storage {
+        HEAP, // as Strings on the heap
+        MAPPED // in a memory-mapped file, see MappedText
+    }
+
+    /**
+     * SHA-256 digest of a body, usable as a map key.
+     */
+    private static final class Key {
+        private final byte[] digest; // SHA-256 of the UTF-8 encoded body
+        private final int hash; // first bytes of the digest
+
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8
+                    | (digest[3] & 0xff);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(digest, ((Key) other).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Single stored body.
+     */
+    private static final class Entry {
+        final Key key; // digest of the body
+        final int bytes; // size of the body in UTF-8
+        String body = null; // the one shared instance, null if no Snippet holds it on the heap
+        long offset = -1; // offset of the body in the mapped file, -1 if no Snippet holds it there
+        int references = 0; // number of Snippets holding the body on the heap
+        int mapped_references = 0; // number of Snippets holding the offset of the body
+
+        Entry(Key key, int bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Deduplication statistics, see {@link #getStatistics()}.
+     */
+    public static class Statistics {
+        private final int bodies; // distinct stored bodies
+        private final long references; // Snippets holding a stored body
+        private final long stored_bytes; // UTF-8 size of distinct bodies
+        private final long logical_bytes; // UTF-8 size of bodies as held by Snippets, duplicates included
+        private final long mapped_bytes; // UTF-8 size of distinct bodies kept in the mapped file
+        private final long file_bytes; // size of the mapped file, including bodies no longer needed
+
+        Statistics(int bodies, long references, long stored_bytes, long logical_bytes, long mapped_bytes,
+                   long file_bytes) {
+            this.bodies = bodies;
+            this.references = references;
+            this.stored_bytes = stored_bytes;
+            this.logical_bytes = logical_bytes;
+            this.mapped_bytes = mapped_bytes;
+            this.file_bytes = file_bytes;
+        }
+
+        public int getBodyCount() {
+            return bodies;
+        }
+        public long getReferenceCount() {
+            return references;
+        }
+        public long getStoredBytes() {
+            return stored_bytes;
+        }
+        public long getLogicalBytes() {
+            return logical_bytes;
+        }
+        public long getMappedBytes() {
+            return mapped_bytes;
+        }
+        public long getFileBytes() {
+            return file_bytes;
+        }
+
+        /**
+         * @return bytes not stored thanks to deduplication
+         */
+        public long getBytesSaved() {
+            return logical_bytes - stored_bytes;
+        }
+
+        /**
+         * @return logical size divided by stored size, 1 if nothing is duplicated
+         */
+        public double getDedupRatio() {
+            return (stored_bytes == 0) ? 1 : (double) logical_bytes / stored_bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("bodies=%d references=%d stored_bytes=%d logical_bytes=%d bytes_saved=%d "
+                    + "dedup_ratio=%.2f mapped_bytes=%d file_bytes=%d", bodies, references, stored_bytes,
+                    logical_bytes, getBytesSaved(), getDedupRatio(), mapped_bytes, file_bytes);
+        }
+    }
+
+    private static final ContentStore shared = new ContentStore(); // store used by all Snippets
+
+    //region Fields
+    private final HashMap<Key, Entry> by_digest = new HashMap<>(); // digest -> stored body
+    private final IdentityHashMap<String, Entry> by_instance = new IdentityHashMap<>(); // stored instance -> entry
+    private final HashMap<Long, Entry> by_offset = new HashMap<>(); // offset in the mapped file -> entry
+    private long references = 0; // sum of references of all entries
+    private long stored_bytes = 0; // sum of sizes of all entries
+    private long logical_bytes = 0; // sum of sizes of all entries times their references
+    private long mapped_bytes = 0; // sum of sizes of entries kept in the mapped file
+    private volatile Storage storage = Storage.HEAP; // where newly stored bodies are kept
+    private volatile MappedText mapped_text = null; // off-heap storage, created when first needed
+    //endregion
+
+    /**
+     * @return store used by all Snippets
+     */
+    public static ContentStore getShared() {
+        return shared;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Chooses where newly stored bodies are kept. Bodies already held by Snippets stay where they are until the
+     * Snippets are edited.
+     * @param storage storage of new bodies
+     * @throws java.io.UncheckedIOException if the mapped file can't be created
+     */
+    public synchronized void setStorage(Storage storage) {
+        if (storage == Storage.MAPPED && mapped_text == null)
+            mapped_text = new MappedText();
+        this.storage = storage;
+    }
+
+    /**
+     * Takes a reference to a body kept on the heap. Hashes the body, unless it's an instance the store already holds.
+     * Hashing happens outside the store's monitor, so large bodies don't hold up other Snippets.
+     * @param body body to be stored, may be null
+     * @return the stored instance with the same contents, to be held instead of the passed one; null for null
+     */
+    public String acquire(String body) {
+        if (body == null)
+            return null;
+        synchronized (this) {
+            Entry entry = by_instance.get(body);
+            if (entry != null)
+                return retain(entry);
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        Key key = new Key(digest(bytes));
+        synchronized (this) {
+            Entry entry = by_instance.get(body); // may have been stored while hashing
+            if (entry == null) {
+                entry = find(key, bytes.length);
+                if (entry.body == null) {
+                    entry.body = body;
+                    by_instance.put(body, entry);
+                }
+            }
+            return retain(entry);
+        }
+    }
+
+    /**
+     * Takes a reference to a body kept on the heap. Called holding the monitor.
+     */
+    private String retain(Entry entry) {
+        entry.references++;
+        references++;
+        logical_bytes += entry.bytes;
+        return entry.body;
+    }
+
+    /**
+     * Takes a reference to a body kept in the mapped file, writing it there unless the file already has the same
+     * contents. Empty bodies have no place in the file, they're kept on the heap. Hashing happens outside the
+     * store's monitor, like in {@link #acquire(String)}.
+     * @param body non-empty body to be stored
+     * @return offset of the body in the mapped file, see {@link #getMappedLength(long)}
+     * @throws IllegalStateException if mapped storage was never enabled
+     * @throws IllegalArgumentException if the body is empty
+     */
+    public long acquireMapped(String body) {
+        if (body.isEmpty())
+            throw new IllegalArgumentException("Empty bodies can't be mapped.");
+        synchronized (this) {
+            if (mapped_text == null)
+                throw new IllegalStateException("Mapped storage is not enabled.");
+            Entry entry = by_instance.get(body);
+            if (entry != null && entry.offset >= 0)
+                return retainMapped(entry.offset);
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        Key key = new Key(digest(bytes));
+        synchronized (this) {
+            Entry entry = by_instance.get(body);
+            if (entry == null)
+                entry = find(key, bytes.length);
+            if (entry.offset < 0) {
+                entry.offset = mapped_text.append(bytes);
+                by_offset.put(entry.offset, entry);
+                mapped_bytes += entry.bytes;
+            }
+            return retainMapped(entry.offset);
+        }
+    }
+
+    /**
+     * Takes another reference to a body kept in the mapped file, e.g. for a copy of a Snippet.
+     * @param offset offset returned by {@link #acquireMapped(String)}
+     * @return the same offset
+     */
+    public synchronized long retainMapped(long offset) {
+        Entry entry = by_offset.get(offset);
+        entry.mapped_references++;
+        references++;
+        logical_bytes += entry.bytes;
+        return offset;
+    }
+
+    /**
+     * @param offset offset returned by {@link #acquireMapped(String)}
+     * @return length of the body, in bytes
+     */
+    public synchronized int getMappedLength(long offset) {
+        return by_offset.get(offset).bytes;
+    }
+
+    /**
+     * Decodes a body kept in the mapped file, or takes it from the hot cache.
+     * @param offset offset returned by {@link #acquireMapped(String)}
+     * @param length length of the body, in bytes
+     * @return body
+     */
+    public String readMapped(long offset, int length) {
+        return mapped_text.read(offset, length);
+    }
+
+    /**
+     * Checks if a body kept in the mapped file contains the term, without decoding it when possible.
+     * @see MappedText#contains(long, int, SearchTerm)
+     * @param offset offset returned by {@link #acquireMapped(String)}
+     * @param length length of the body, in bytes
+     * @param term precompiled search term
+     * @return true if the term was found
+     */
+    public boolean containsMapped(long offset, int length, SearchTerm term) {
+        return mapped_text.contains(offset, length, term);
+    }
+
+    /**
+     * Gives back a reference taken with {@link #acquire(String)}. The body is dropped once nobody references it.
+     * @param body stored instance returned by acquire, may be null
+     */
+    public synchronized void release(String body) {
+        Entry entry = (body == null) ? null : by_instance.get(body);
+        if (entry == null)
+            return;
+        entry.references--;
+        references--;
+        logical_bytes -= entry.bytes;
+        if (entry.references <= 0) {
+            by_instance.remove(body);
+            entry.body = null;
+            drop(entry);
+        }
+    }
+
+    /**
+     * Gives back a reference taken with {@link #acquireMapped(String)} or {@link #retainMapped(long)}. The bytes of
+     * a body nobody references stay in the mapped file, but the same contents stored later are written anew.
+     * @param offset offset of the body in the mapped file
+     */
+    public synchronized void releaseMapped(long offset) {
+        Entry entry = by_offset.get(offset);
+        if (entry == null)
+            return;
+        entry.mapped_references--;
+        references--;
+        logical_bytes -= entry.bytes;
+        if (entry.mapped_references <= 0) {
+            by_offset.remove(offset);
+            mapped_text.forget(offset);
+            mapped_bytes -= entry.bytes;
+            entry.offset = -1;
+            drop(entry);
+        }
+    }
+
+    /**
+     * Finds the entry with the same contents, creating an empty one if there is none. Called holding the monitor.
+     * @param key digest of the body, computed beforehand
+     * @param length length of the UTF-8 encoded body, in bytes
+     */
+    private Entry find(Key key, int length) {
+        Entry entry = by_digest.get(key);
+        if (entry == null) {
+            entry = new Entry(key, length);
+            by_digest.put(key, entry);
+            stored_bytes += entry.bytes;
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the entry once neither the heap nor the mapped file holds it.
+     */
+    private void drop(Entry entry) {
+        if (entry.body == null && entry.offset < 0) {
+            by_digest.remove(entry.key);
+            stored_bytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * @return number of distinct stored bodies
+     */
+    public synchronized int size() {
+        return by_digest.size();
+    }
+
+    /**
+     * Returns the current deduplication statistics. References of garbage collected Snippets are given back
+     * asynchronously, so the numbers may lag behind a large deletion for a while.
+     * @return statistics snapshot
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(by_digest.size(), references, stored_bytes, logical_bytes, mapped_bytes,
+                (mapped_text == null) ? 0 : mapped_text.size());
+    }
+
+    private static byte[] digest(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex); // required of every Java platform
+        }
+    }
+}
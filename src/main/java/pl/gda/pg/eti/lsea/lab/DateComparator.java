@@ -10,7 +10,7 @@ public class DateComparator implements Comparator<Node> {
 
     @Override
     public int compare(Node o1, Node o2) {
-        return o1.getDateEdited().compareTo(o2.getDateEdited());
+        return Long.compare(o1.getTimeEdited(), o2.getTimeEdited());
     }
     
 }
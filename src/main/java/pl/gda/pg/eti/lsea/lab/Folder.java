@@ -1,19 +1,146 @@
 package pl.gda.pg.eti.lsea.lab;
 
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.stream.Collectors;
 
 /**
  * A Folder which can contain any number of other Nodes (other Folder or a 
  * Snippet).
+ *
+ * Clones are copy-on-write (see {@link #setCopyOnWrite(boolean)}): a clone only remembers the Folder it was made
+ * from and copies its children - one level at a time, themselves as pending clones - once they're first needed. A
+ * change to the original copies the pending clones on the way down to it first, so they keep the state from the
+ * time of cloning. Snippet bodies are immutable Strings and are never copied.
  * @see Node
  * @author Tomasz Wierciński
  */
 public class Folder extends Node {
 
+    /**
+     * Children sharing a title - the first of them in list order and how many there are.
+     */
+    private static class TitleEntry {
+        Node first; // first child with the title
+        int count = 0; // number of children with the title
+    }
+
+    /**
+     * Sharing statistics of a structure, see {@link #getSharingReport()}.
+     */
+    public static class SharingReport {
+        private int nodes = 0; // Nodes in the structure, below the Folder it was made for
+        private int shared_nodes = 0; // Nodes that only exist as part of a pending copy
+        private long body_chars = 0; // characters in all Snippet bodies
+        private long shared_body_chars = 0; // characters in bodies stored only once but used more than once
+
+        public int getNodeCount() {
+            return nodes;
+        }
+        public int getSharedNodeCount() {
+            return shared_nodes;
+        }
+        public long getBodyChars() {
+            return body_chars;
+        }
+        public long getSharedBodyChars() {
+            return shared_body_chars;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("nodes=%d shared_nodes=%d body_chars=%d shared_body_chars=%d", nodes,
+                    shared_nodes, body_chars, shared_body_chars);
+        }
+    }
+
+    /**
+     * Serialized form of a Folder - the Folder and every Node below it, flattened in structure order. Default
+     * serialization nests a few calls per level of the structure and runs out of stack on deep structures, this form
+     * is written and read in a single loop. Read back as a Folder.
+     */
+    private static class FlatStructure implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] titles; // title of every Node
+        private final long[] created; // date of creation of every Node, epoch millis
+        private final long[] edited; // date of last edit of every Node, epoch millis
+        private final int[] child_counts; // number of children of every Folder, -1 for Snippets
+        private final String[] langs; // language of every Snippet, null for Folders
+        private final String[] bodies; // contents of every Snippet, null for Folders
+
+        FlatStructure(Folder root) {
+            int size = root.getSubtreeSize();
+            titles = new String[size];
+            created = new long[size];
+            edited = new long[size];
+            child_counts = new int[size];
+            langs = new String[size];
+            bodies = new String[size];
+            int i = 0;
+            for (Iterator<Node> nodes = root.stream().iterator(); nodes.hasNext(); i++) {
+                Node node = nodes.next();
+                titles[i] = node.getTitle();
+                created[i] = node.getTimeCreated();
+                edited[i] = node.getTimeEdited();
+                if (node instanceof Folder) {
+                    child_counts[i] = ((Folder) node).getChildren().size();
+                } else {
+                    child_counts[i] = -1;
+                    langs[i] = ((Snippet) node).getLang();
+                    bodies[i] = ((Snippet) node).get();
+                }
+            }
+        }
+
+        private Object readResolve() {
+            Deque<Folder> folders = new ArrayDeque<>(); // Folders still missing children, innermost on top
+            Deque<ArrayList<Node>> pending = new ArrayDeque<>(); // children read so far for each of them
+            Deque<Integer> missing = new ArrayDeque<>(); // number of children each of them is missing
+            Node node = null;
+            for (int i = 0; i < titles.length; i++) {
+                node = (child_counts[i] < 0) ? new Snippet(titles[i], langs[i], bodies[i]) : new Folder(titles[i]);
+                node.setDateCreated(new Date(created[i]));
+                node.setDateEdited(new Date(edited[i]));
+                if (child_counts[i] > 0) {
+                    folders.push((Folder) node);
+                    pending.push(new ArrayList<>(child_counts[i]));
+                    missing.push(child_counts[i]);
+                    continue;
+                }
+                // a complete Node - Folders get their children only once all are read, before being attached
+                // themselves, so descendant counts aren't updated all the way up for every Node
+                while (!folders.isEmpty()) {
+                    pending.peek().add(node);
+                    missing.push(missing.pop() - 1);
+                    if (missing.peek() > 0)
+                        break;
+                    node = folders.pop();
+                    missing.pop();
+                    for (Node child : pending.pop())
+                        ((Folder) node).addChild(child);
+                }
+            }
+            return node;
+        }
+    }
+
+    private static volatile boolean copy_on_write = true; // true if clones share structure until changed
+
     ArrayList<Node> children = new ArrayList<>();  // all Nodes contained in Folder
+    private transient volatile Folder source = null; // Folder this one is a pending copy of, null once copied
+    private transient ArrayList<WeakReference<Folder>> pending_copies = null; // pending copies made from this Folder
+    private int descendants = 0; // number of Nodes below this Folder, at any depth
+    private transient HashMap<String, TitleEntry> child_titles = null; // title -> children with it, built lazily
+    private transient volatile int numbered = 0; // children below this index know their positions
 
     //region Constructors
     public Folder() {
@@ -24,9 +151,209 @@ public class Folder extends Node {
     }
     //endregion
 
+    //region Copy-on-write
+    public static boolean isCopyOnWrite() {
+        return copy_on_write;
+    }
+
+    /**
+     * Switches between copy-on-write and eager cloning of Folders. Clones made so far stay as they are.
+     * @param enabled true for copy-on-write clones, false for eager deep copies
+     */
+    public static void setCopyOnWrite(boolean enabled) {
+        copy_on_write = enabled;
+    }
+
+    /**
+     * @return true if this Folder is a clone whose children haven't been copied yet
+     */
+    public boolean isPendingCopy() {
+        return source != null;
+    }
+
+    /**
+     * Children of this Folder, copied from the original first if this is a pending copy.
+     */
+    private ArrayList<Node> children() {
+        if (source != null)
+            copyChildren();
+        return children;
+    }
+
+    /**
+     * Makes a pending copy of this Folder in O(1). Copies of pending copies read the same original.
+     */
+    private Folder copyLazily() {
+        Folder original = source;
+        if (original == null)
+            original = this;
+        Folder copy = new Folder(title);
+        copy.descendants = descendants;
+        copy.source = original;
+        synchronized (original) {
+            if (original.pending_copies == null)
+                original.pending_copies = new ArrayList<>(1);
+            original.pending_copies.removeIf(reference -> reference.get() == null); // copies dropped unchanged
+            original.pending_copies.add(new WeakReference<>(copy));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies one level of the original - Snippets outright, Folders as new pending copies. Not a change of this
+     * Folder, so no events are fired and no paths are invalidated.
+     */
+    private synchronized void copyChildren() {
+        Folder original = source;
+        if (original == null)
+            return; // copied by another thread in the meantime
+        ArrayList<Node> originals = original.getChildren();
+        ArrayList<Node> copies = new ArrayList<>(originals.size());
+        for (Node child : originals) {
+            Node copy = (child instanceof Folder) ? ((Folder) child).copyLazily() : (Node) ((Snippet) child).clone();
+            copy.created = (Date) created.clone(); // the whole clone was made at once
+            copy.edited = (Date) created.clone();
+            copy.parent = this;
+            copy.position = copies.size();
+            copies.add(copy);
+        }
+        children = copies;
+        numbered = copies.size();
+        source = null;
+    }
+
+    /**
+     * Copies the pending copies of the passed Folder and of every Folder above it, top-down, before any of them is
+     * changed, so the copies keep the state from the time of cloning. Only Folders on the path down are copied.
+     * @param folder Folder about to be changed, or the parent of a Node about to be changed
+     */
+    static void detachCopies(Folder folder) {
+        Folder topmost = null;
+        for (Node node = folder; node != null; node = node.parent)
+            if (((Folder) node).pending_copies != null)
+                topmost = (Folder) node;
+        if (topmost == null)
+            return;
+
+        Deque<Folder> path = new ArrayDeque<>(); // Folders from the topmost one with copies down to the changed one
+        for (Node node = folder; node != topmost; node = node.parent)
+            path.push((Folder) node);
+        path.push(topmost);
+        for (Folder current : path)
+            current.detachOwnCopies(); // registers pending copies of the next Folder down the path
+    }
+
+    /**
+     * Copies the pending copies of this Folder only. Enough for Folders changed top-down, whose ancestors have just
+     * been detached.
+     */
+    private void detachOwnCopies() {
+        ArrayList<WeakReference<Folder>> copies;
+        synchronized (this) {
+            copies = pending_copies;
+            pending_copies = null;
+        }
+        if (copies != null)
+            for (WeakReference<Folder> reference : copies) {
+                Folder copy = reference.get();
+                if (copy != null)
+                    copy.copyChildren();
+            }
+    }
+
+    /**
+     * Reports how much of the structure below this Folder is shared rather than copied - Nodes of pending copies,
+     * and Snippet bodies used by more than one Snippet. Doesn't copy anything itself.
+     * @return sharing statistics
+     */
+    public SharingReport getSharingReport() {
+        SharingReport report = new SharingReport();
+        IdentityHashMap<String, Boolean> bodies = new IdentityHashMap<>(); // bodies seen so far
+        Deque<Folder> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Folder folder = stack.pop();
+            Folder original = folder.source;
+            if (original != null) {
+                // nothing copied yet - every Node and body below it is stored by the original
+                report.nodes += folder.descendants;
+                report.shared_nodes += folder.descendants;
+                long chars = original.getBodyChars();
+                report.body_chars += chars;
+                report.shared_body_chars += chars;
+                continue;
+            }
+            for (Node child : folder.children) {
+                report.nodes++;
+                if (child instanceof Folder) {
+                    stack.push((Folder) child);
+                } else {
+                    String body = ((Snippet) child).get();
+                    int chars = (body == null) ? 0 : body.length();
+                    report.body_chars += chars;
+                    if (body != null && bodies.put(body, true) != null)
+                        report.shared_body_chars += chars;
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Sums the lengths of Snippet bodies below this Folder, without copying pending copies.
+     */
+    private long getBodyChars() {
+        long chars = 0;
+        Deque<Folder> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Folder folder = stack.pop();
+            Folder original = folder.source;
+            for (Node child : (original != null) ? original.children : folder.children) {
+                if (child instanceof Folder)
+                    stack.push((Folder) child);
+                else if (((Snippet) child).get() != null)
+                    chars += ((Snippet) child).get().length();
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Serializes the structure as a {@link FlatStructure}, so its depth isn't limited by the call stack. Pending
+     * children are copied on the way, so the written structure is complete.
+     */
+    private Object writeReplace() {
+        return new FlatStructure(this);
+    }
+    //endregion
+
     //region Getters
+    /**
+     * Returns the list of children. The list must not be modified directly - use {@link #addChild(Node)} and
+     * {@link #removeChild(Node)}, which keep the positions and titles of children indexed.
+     * @return children in order
+     */
     public ArrayList<Node> getChildren() {
-        return children;
+        return children();
+    }
+
+    /**
+     * Returns the number of Nodes below this Folder, at any depth. Kept up to date by {@link #addChild(Node)} and
+     * {@link #removeChild(Node)}, so it's available without traversing the structure.
+     * @return number of descendant Nodes
+     */
+    public int getDescendantCount() {
+        return descendants;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @return number of Nodes in this Folder's structure, the Folder included
+     */
+    @Override
+    public int getSubtreeSize() {
+        return descendants + 1;
     }
 
     /**
@@ -37,41 +364,69 @@ public class Folder extends Node {
     public Node getChild(int index) {
         Node child = null;
         
-        if (index >= 0 && index < this.children.size()) {
-            child = this.children.get(index);
+        ArrayList<Node> children = children();
+        if (index >= 0 && index < children.size()) {
+            child = children.get(index);
         }
         
         return child;
     }
 
     /**
-     * Returns the first child Node from the list that matches the passed title.
+     * Returns the position of a child in the list. Children remember their positions - removals and sorts only mark
+     * the positions from the first affected child on as stale, and they're renumbered as far as needed on the next
+     * lookup. Appending children and looking up children in front of the last removal are constant-time.
+     * @param child child Node
+     * @return index of the child, -1 if the Node isn't a child of this Folder
+     */
+    public int indexOf(Node child) {
+        if (child == null || child.getParent() != this)
+            return -1;
+        // a position past the renumbered prefix may be left over from before a sort, the list has the final say
+        ArrayList<Node> children = children();
+        int position = child.position;
+        if (position >= 0 && position < children.size() && children.get(position) == child)
+            return position;
+
+        int valid = numbered;
+        int size = children.size();
+        int i = valid;
+        while (i < size) {
+            Node next = children.get(i);
+            next.position = i++;
+            if (next == child)
+                break;
+        }
+        numbered = i;
+        return (i > valid && children.get(i - 1) == child) ? i - 1 : -1;
+    }
+
+    /**
+     * Returns the first child Node from the list that matches the passed title. Looked up in a hash index of child
+     * titles, built on first use and kept up to date by {@link #addChild(Node)}, {@link #removeChild(Node)},
+     * {@link Node#setTitle(String)} and sorting.
      * @param title child Node title.
      * @return first child Node with passed title.
      */
     public Node getChildFromTitle(String title) {
-        Node out = null;
-        for (Node child : children)
-            if (child.getTitle().equals(title)) {
-                out = child;
-                break;
-            }
-        return out;
+        TitleEntry entry = getChildTitles().get(title);
+        return (entry == null) ? null : entry.first;
     }
 
     /**
-     * Gets all child Nodes recursively and returns as an ArrayList.
-     * @return list of all child Nodes.
+     * Gets all Nodes below this Folder, at any depth, and returns them as an ArrayList.
+     * @return list of all child Nodes, in structure order
      */
     public ArrayList<Node> getAllChildren() {
-        ArrayList<Node> children_all = new ArrayList<>(children);
-
-        for (Node child : children) {
-            if (child instanceof Folder) {
-                children_all.addAll(((Folder) child).getAllChildren());
+        ArrayList<Node> children_all = new ArrayList<>(descendants);
+        walk(new NodeVisitor() {
+            @Override
+            public Control enter(Node node, int depth) {
+                if (depth > 0)
+                    children_all.add(node);
+                return Control.CONTINUE;
             }
-        }
-
+        });
         return children_all;
     }
     //endregion
@@ -82,41 +437,152 @@ public class Folder extends Node {
      * @param node
      */
     public void addChild(Node node) {
-        children.add(node);
+        detachCopies(this);
+        children().add(node);
         node.setParent(this);
+        node.position = children().size() - 1;
+        if (numbered == node.position)
+            numbered++;
+        if (child_titles != null)
+            indexTitle(node, node.getTitle(), true);
+        updateDescendantCount(node.getSubtreeSize());
     }
     
     /**
-     * Removes child node with picked index.
+     * Removes child node with picked index. The removed Node is detached from this Folder.
      * @param index child index
      * @return removed child Node
      */
     public Node removeChild(int index) {
-        return children.remove(index);
+        detachCopies(this);
+        Node removed = children().remove(index);
+        removed.setParent(null);
+        removed.position = -1;
+        if (numbered > index)
+            numbered = index;
+        if (child_titles != null)
+            unindexTitle(removed, removed.getTitle());
+        updateDescendantCount(-removed.getSubtreeSize());
+        return removed;
     }
     
     /**
-     * Removes passed child node from list of children.
+     * Removes passed child node from list of children. The removed Node is detached from this Folder.
      * @param child child Node to be removed
      * @return true if the child Node was removed
      */
     public boolean removeChild(Node child) {
-        return children.remove(child);
+        int index = indexOf(child);
+        if (index >= 0)
+            removeChild(index);
+        return index >= 0;
+    }
+
+    /**
+     * Adds the difference to descendant counts of this Folder and all Folders above it.
+     * @param delta number of added (positive) or removed (negative) Nodes
+     */
+    private void updateDescendantCount(int delta) {
+        for (Node node = this; node != null; node = node.getParent())
+            ((Folder) node).descendants += delta;
+    }
+
+    /**
+     * Moves a renamed child to its new title in the index. Called by {@link Node#setTitle(String)}.
+     * @param child renamed child Node
+     * @param old_title title of the child before the change
+     */
+    void childRenamed(Node child, String old_title) {
+        if (child_titles == null)
+            return;
+        unindexTitle(child, old_title);
+        indexTitle(child, child.getTitle(), false);
+    }
+    //endregion
+
+    //region Child title index
+    private HashMap<String, TitleEntry> getChildTitles() {
+        if (child_titles == null) {
+            child_titles = new HashMap<>(children().size() * 4 / 3 + 1);
+            for (Node child : children())
+                indexTitle(child, child.getTitle(), true);
+        }
+        return child_titles;
+    }
+
+    /**
+     * Adds a child to the index.
+     * @param child indexed child Node
+     * @param title title it's indexed under
+     * @param last true if the child is known to be the last one in the list, saves looking up its position
+     */
+    private void indexTitle(Node child, String title, boolean last) {
+        TitleEntry entry = child_titles.computeIfAbsent(title, k -> new TitleEntry());
+        if (entry.count++ == 0)
+            entry.first = child;
+        else if (!last && indexOf(child) < indexOf(entry.first))
+            entry.first = child; // only titles shared by several children need positions
+    }
+
+    /**
+     * Removes a child from the index. If it was the first one with its title, the next one takes its place.
+     * @param child removed child Node, may still be in the list
+     * @param title title it was indexed under
+     */
+    private void unindexTitle(Node child, String title) {
+        TitleEntry entry = child_titles.get(title);
+        if (entry == null)
+            return;
+        if (--entry.count == 0) {
+            child_titles.remove(title);
+        } else if (entry.first == child) {
+            for (Node other : children())
+                if (other != child && other.getTitle().equals(title)) {
+                    entry.first = other;
+                    break;
+                }
+        }
     }
     //endregion
     
+    /**
+     * Sorts the children of this Folder only, leaving sub-folders as they are. The sort is stable - children
+     * comparing as equal keep their order.
+     * @param comparator order of children
+     */
+    public void sortChildren(Comparator<? super Node> comparator) {
+        detachCopies(this);
+        reorderChildren(comparator);
+    }
+
+    /**
+     * Sorts the children of this Folder only, for sorts going down the structure. Unlike
+     * {@link #sortChildren(Comparator)} doesn't look for pending copies above the parent, which keeps sorts of deep
+     * structures linear - the parent must have been sorted, with either method, just before.
+     * @param comparator order of children
+     */
+    public void sortChildrenTopDown(Comparator<? super Node> comparator) {
+        if (parent == null) {
+            sortChildren(comparator);
+            return;
+        }
+        detachOwnCopies();
+        reorderChildren(comparator);
+    }
+
+    private void reorderChildren(Comparator<? super Node> comparator) {
+        children().sort(comparator);
+        child_titles = null; // first children of shared titles may have changed
+        numbered = 0;
+    }
+
     /**
      * Sorts all nodes within a folder lexicographically. Uses title string to
      * sort. Sorts recursively over all sub-folders.
      */
     public void sort() {
         // Comparable implementation usage
-        Collections.sort(children);
-        for (Node child : children) {
-            if (child instanceof Folder) {
-                ((Folder)child).sort();
-            }
-        }
+        sortAll(Comparator.naturalOrder());
     }
     
     /**
@@ -127,12 +593,24 @@ public class Folder extends Node {
      */
     public <T extends Comparator> void sort(T comparator) {
         // Comparator implementation usage
-        Collections.sort(children, comparator);
-        for (Node child : children) {
-            if (child instanceof Folder) {
-                ((Folder)child).sort(comparator);
+        sortAll(comparator);
+    }
+
+    /**
+     * Sorts the children of this Folder and of every Folder below it, each before its children are visited.
+     * @param comparator order of children
+     */
+    private void sortAll(Comparator<? super Node> comparator) {
+        walk(new NodeVisitor() {
+            @Override
+            public Control enter(Node node, int depth) {
+                if (depth == 0)
+                    ((Folder) node).sortChildren(comparator);
+                else if (node instanceof Folder)
+                    ((Folder) node).sortChildrenTopDown(comparator);
+                return Control.CONTINUE;
             }
-        }
+        });
     }
     
     /**
@@ -145,24 +623,39 @@ public class Folder extends Node {
     }
     
     /**
-     * Deep cloning implementation.
+     * Deep cloning implementation. In copy-on-write mode (the default) the clone is made in O(1) and copies the
+     * structure lazily, see {@link Folder}.
      * @see pl.gda.pg.eti.lsea.lab.Snippet#clone
      * @see pl.gda.pg.eti.lsea.lab.Node#clone
      */
     @Override
     public Folder clone() throws CloneNotSupportedException {
-        Folder folder = new Folder(this.title);
-        
-        // Clone all child nodes (this should work recursively).
-        ArrayList<Node> children_clone = new ArrayList<>(this.children.size());
-        for (Node child : this.children) {
-            
-            // Can't addChild directly to folder due to concurrent modification issues. :<
-            Node child_clone = (Node) child.clone();
-            folder.addChild(child_clone);
-        }
-        
-        return folder;
+        if (copy_on_write)
+            return copyLazily();
+        Deque<ArrayList<Node>> copies = new ArrayDeque<>(); // copies of children of the entered Folders
+        copies.push(new ArrayList<>(1));
+        walk(new NodeVisitor() {
+            @Override
+            public Control enter(Node node, int depth) {
+                if (node instanceof Folder)
+                    copies.push(new ArrayList<>(((Folder) node).getChildren().size()));
+                else
+                    copies.peek().add((Node) ((Snippet) node).clone());
+                return Control.CONTINUE;
+            }
+
+            @Override
+            public void leave(Node node, int depth) {
+                if (node instanceof Folder) {
+                    // the copy gets its children before it's attached, so descendant counts are updated once
+                    Folder copy = new Folder(node.getTitle());
+                    for (Node child : copies.pop())
+                        copy.addChild(child);
+                    copies.peek().add(copy);
+                }
+            }
+        });
+        return (Folder) copies.pop().get(0);
     }
 
     /**
@@ -172,71 +665,54 @@ public class Folder extends Node {
      */
     @Override
     protected String getStructure(int depth) {
-        String out = super.getStructure(depth);
-
-        for (Node child : children) {
-            out += "\n" + child.getStructure(depth + 1);
-        }
-
-        return out;
+        StringBuilder out = new StringBuilder();
+        walk(new NodeVisitor() {
+            @Override
+            public Control enter(Node node, int level) {
+                if (level > 0)
+                    out.append('\n');
+                out.append(node.getStructureLine(depth + level));
+                return Control.CONTINUE;
+            }
+        });
+        return out.toString();
     }
 
     /**
      * Checks if the title of the Folder - or any titles of child Nodes - 
      * contains the term. Non-case-sensitive. Returns the Folder and any child
-     * Nodes that are a match.
-     * @see Node#searchTitle(java.lang.String)
-     * @see Snippet#searchTitle(java.lang.String)
-     * @param term String to be searched for
+     * Nodes that are a match. Use {@link #streamTitle(String)} if only some of
+     * the matches are needed.
+     * @see Node#searchTitle(SearchTerm)
+     * @see Snippet#searchTitle(SearchTerm)
+     * @param term precompiled search term
      * @return ArrayList of matching Nodes, empty if no matches found.
      */
     @Override
-    public ArrayList<Node> searchTitle(String term) {
-        ArrayList<Node> found = new ArrayList<>();
-
-        // checks this Folder
-        if (title.toLowerCase().contains(term.toLowerCase())) {
-            found.add(this);
-        }
-
-        // checks all child nodes - usage of polymorphism
-        for (Node child : children) {
-            found.addAll(child.searchTitle(term));
-        }
-
-        return found;
+    public ArrayList<Node> searchTitle(SearchTerm term) {
+        // single pass over the structure, hits go straight into one list
+        return streamTitle(term, () -> false).collect(Collectors.toCollection(ArrayList::new));
     }
 
     /**
      * Non-case-sensitive search on contents of all nodes within folder. 
      * Currently, only returns Snippets.
-     * @param term search term to be compared against node contents
+     * @param term precompiled search term
      * @return ArrayList of Nodes matching search term
      */
     @Override
-    public ArrayList<Node> searchContent(String term) {
-        ArrayList<Node> found = new ArrayList<>();
-
-        // checks all child nodes - usage of polymorphism
-        for (Node child : children) {
-            found.addAll(child.searchContent(term));
-        }
-
-        return found;
+    public ArrayList<Node> searchContent(SearchTerm term) {
+        return streamContent(term, () -> false).collect(Collectors.toCollection(ArrayList::new));
     }
     
+    /**
+     * {@inheritDoc} Walks down the structure one title at a time, each looked up in the index of child titles.
+     */
     @Override
-    public Node getNodeFromPath(String[] path) {
-        Node out = null;
-        
-        if (path.length > 0) {
-            out = getChildFromTitle(path[0]);
-            if (out != null && path.length > 1)
-                out = out.getNodeFromPath(Arrays.copyOfRange(path, 1, path.length));
-        }
-        else if (path[0].equals(title))
-            out = this;
-            
+    public Node getNodeFromPath(String[] path, int offset) {
+        Node out = this;
+        for (int i = offset; i < path.length && out != null; i++)
+            out = (out instanceof Folder) ? ((Folder) out).getChildFromTitle(path[i]) : null;
         return out;
     }
 
@@ -1,12 +1,36 @@
 package pl.gda.pg.eti.lsea.lab;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.EventListener;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 import javax.swing.event.EventListenerList;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
+import pl.gda.pg.eti.lsea.lab.search.BackgroundIndexer;
+import pl.gda.pg.eti.lsea.lab.search.Bm25Index;
+import pl.gda.pg.eti.lsea.lab.search.DateIndex;
+import pl.gda.pg.eti.lsea.lab.search.FuzzyTitleIndex;
+import pl.gda.pg.eti.lsea.lab.search.LanguageIndex;
+import pl.gda.pg.eti.lsea.lab.search.ParallelSearch;
+import pl.gda.pg.eti.lsea.lab.search.ParallelSort;
+import pl.gda.pg.eti.lsea.lab.search.Query;
+import pl.gda.pg.eti.lsea.lab.search.QueryCache;
+import pl.gda.pg.eti.lsea.lab.search.QueryPlanner;
+import pl.gda.pg.eti.lsea.lab.search.TitleIndex;
+import pl.gda.pg.eti.lsea.lab.search.TrigramIndex;
 
 /**
  * WORK IN PROGRESS
@@ -24,9 +48,42 @@ public class FolderTree implements TreeModel {
     private Folder root_folder = new Folder("Root");
     // list of all tree model listeners
     private EventListenerList listener_list = new EventListenerList(); 
+    // trigram index over Snippet contents, built on first content search
+    private TrigramIndex content_index = null;
+    // case-folded index over Node titles, built on first title search
+    private TitleIndex title_index = null;
+    // BK-tree over Node titles, built on first fuzzy search
+    private FuzzyTitleIndex fuzzy_index = null;
+    // per-language bitmaps of Snippets, built on first language query
+    private LanguageIndex language_index = null;
+    // dates of creation and of last edit ordered by time, built on first date query
+    private DateIndex date_index = null;
+    // term statistics of Snippet contents and titles, built on first ranked search
+    private Bm25Index ranked_index = null;
+    // keeps all indexes built so far up to date on a background thread, fed with this model's events
+    private final BackgroundIndexer indexer = new BackgroundIndexer(root_folder);
+    // fork/join search used when the indexes can't narrow a search down
+    private final ParallelSearch parallel_search = new ParallelSearch();
+    // fork/join recursive sort, sequential for small structures
+    private final ParallelSort parallel_sort = new ParallelSort();
+    // cached search results, valid while modification_count doesn't change
+    private final QueryCache query_cache = new QueryCache();
+    // bumped by every change of the tree or of a Node within it, once listeners - the indexer among them - have it
+    private volatile long modification_count = 0;
+    // batch being recorded or applied, null if none - its changes and events are held back until it ends
+    private volatile Batch batch = null;
+    // languages this many times rarer than the tree has Nodes are searched by scanning their Snippets
+    private static final int LANGUAGE_SCAN_RATIO = 8;
     
     //endregion
 
+    //region Constructors
+    public FolderTree() {
+        root_folder.addNodeListener(new NodeChangeForwarder());
+        addTreeModelListener(indexer);
+    }
+    //endregion
+
     //region TreeModel Overrides
     /**
      * Retrieves the root of the folder tree.
@@ -91,7 +148,7 @@ public class FolderTree implements TreeModel {
      */
     @Override
     public int getIndexOfChild(Object parent, Object child) {
-        return ((Folder) parent).getChildren().indexOf(child);
+        return (child instanceof Node) ? ((Folder) parent).indexOf((Node) child) : -1;
     }
 
     @Override
@@ -119,10 +176,17 @@ public class FolderTree implements TreeModel {
      * @param parent parent Node, Folder
      */
     public void insertNodeInto(Node child, Folder parent) {     
-        parent.addChild(child);
+        if (inBatch()) {
+            batch.insertNodeInto(child, parent);
+            return;
+        }
+        int[] child_indices = new int[1];
+        synchronized (indexer.getLock()) {
+            parent.addChild(child);
+            child_indices[0] = parent.indexOf(child);
+        }
         
         TreePath path = parent.getPathArray();
-        int[] child_indices = {parent.getChildren().indexOf(child)};
         Object[] children = {child};
         
         System.out.println(path.getLastPathComponent());
@@ -131,26 +195,291 @@ public class FolderTree implements TreeModel {
         EventListener[] listeners = listener_list.getListeners(TreeModelListener.class);
         for (int i = 0; i < listeners.length; i++)
            ((TreeModelListener) listeners[i]).treeNodesInserted(e);
+        modification_count++;
     }
     
     public void removeChild(Node child, Folder parent) {
+        if (inBatch()) {
+            batch.removeChild(child, parent);
+            return;
+        }
         // The documentation for TreePath is so bad, oh my gooooooooooooood
         TreePath path = parent.getPathArray();
-        int[] child_indices = {parent.getChildren().indexOf(child)};
+        int[] child_indices = new int[1];
         Object[] children = {child};
         
-        parent.removeChild(child);
+        synchronized (indexer.getLock()) {
+            child_indices[0] = parent.indexOf(child);
+            parent.removeChild(child);
+        }
         
         TreeModelEvent e = new TreeModelEvent(this, path, child_indices, children);
         EventListener[] listeners = listener_list.getListeners(TreeModelListener.class);
         for (EventListener listener : listeners) ((TreeModelListener) listener).treeNodesRemoved(e);
+        modification_count++;
     }
+
+    //region Batches
+    /**
+     * Applies many changes at once. Inserts, removals and renames made within the batch - through the passed
+     * {@link Batch} or through this model - are recorded while the code runs, then applied to the structure together,
+     * under a single acquisition of the structure lock. Listeners are notified once they're applied, with one
+     * multi-index event per run of changes of the same kind under the same parent, instead of one event per Node.
+     * Edits made directly through Node setters are applied right away, but their events are held back as well.
+     * Batches started within a batch join it.
+     *
+     * If the code throws, the recorded changes are dropped and the exception is passed on. Edits already applied,
+     * through Node setters or by sorting within the batch, stay and are still reported to listeners.
+     *
+     * Searches made within a batch don't see its recorded changes until it ends.
+     * @param changes code making the changes
+     */
+    public void batch(Consumer<Batch> changes) {
+        if (inBatch()) {
+            changes.accept(batch);
+            return;
+        }
+        Batch current = new Batch();
+        batch = current;
+        boolean completed = false;
+        try {
+            changes.accept(current);
+            completed = true;
+        } finally {
+            try {
+                if (completed)
+                    current.apply();
+            } finally {
+                batch = null;
+                current.fireEvents();
+            }
+        }
+    }
+
+    private boolean inBatch() {
+        Batch current = batch;
+        return current != null && current.owner == Thread.currentThread();
+    }
+
+    /**
+     * Changes collected by {@link #batch(Consumer)}. Consecutive inserts under one parent become a single
+     * "inserted" event and consecutive removals a single "removed" event - runs are only broken when the kind of
+     * change under that parent switches, so the indices in every event stay valid. Property changes are sent last,
+     * one event per parent. Paths in the events are taken when they're sent, so they're valid even for Folders
+     * attached later in the batch.
+     */
+    public class Batch {
+
+        /**
+         * Run of inserts or removals under a single parent.
+         */
+        private class Run {
+            final boolean insert; // true for inserts, false for removals
+            final Folder parent; // Folder whose children changed
+            final ArrayList<Node> nodes = new ArrayList<>(); // inserted or removed children, in order
+            int[] indices = new int[4]; // indices of inserted children, unused for removals
+            final ArrayList<Node> before; // children before the first removal, null for inserts
+
+            Run(boolean insert, Folder parent) {
+                this.insert = insert;
+                this.parent = parent;
+                this.before = insert ? null : new ArrayList<>(parent.getChildren());
+            }
+
+            /**
+             * Builds the event. Removal indices are looked up in the children from before the run, as listeners
+             * expect.
+             */
+            TreeModelEvent toEvent() {
+                TreePath path = parent.getPathArray();
+                if (insert)
+                    return new TreeModelEvent(FolderTree.this, path, Arrays.copyOf(indices, nodes.size()),
+                            nodes.toArray());
+                IdentityHashMap<Node, Boolean> removed = new IdentityHashMap<>(nodes.size() * 2);
+                for (Node node : nodes)
+                    removed.put(node, true);
+                int[] removed_indices = new int[nodes.size()];
+                Object[] removed_nodes = new Object[nodes.size()];
+                int count = 0;
+                for (int i = 0; i < before.size() && count < removed_indices.length; i++) {
+                    if (removed.containsKey(before.get(i))) {
+                        removed_indices[count] = i;
+                        removed_nodes[count++] = before.get(i);
+                    }
+                }
+                return new TreeModelEvent(FolderTree.this, path, removed_indices, removed_nodes);
+            }
+        }
+
+        private final Thread owner = Thread.currentThread(); // thread running the batch
+        private final ArrayList<Runnable> recorded = new ArrayList<>(); // changes not applied yet, in order
+        private final ArrayList<Run> runs = new ArrayList<>(); // runs of applied changes, in order
+        private final HashMap<Folder, Run> last_runs = new HashMap<>(); // parent -> its latest run
+        // Nodes with changed properties -> changed properties, in order of the first change
+        private final LinkedHashMap<Node, EnumSet<NodeEvent.Property>> changed = new LinkedHashMap<>();
+
+        private Batch() {
+        }
+
+        /**
+         * Inserts node as child of a parent node once the batch ends.
+         * @param child child Node
+         * @param parent parent Node, Folder
+         */
+        public void insertNodeInto(Node child, Folder parent) {
+            recorded.add(() -> {
+                parent.addChild(child);
+                Run run = getRun(true, parent);
+                if (run.nodes.size() == run.indices.length)
+                    run.indices = Arrays.copyOf(run.indices, run.indices.length * 2);
+                run.indices[run.nodes.size()] = parent.indexOf(child);
+                run.nodes.add(child);
+            });
+        }
+
+        /**
+         * Removes child from a parent node once the batch ends. Does nothing if the Node isn't a child of the parent
+         * by then.
+         * @param child child Node
+         * @param parent parent Node, Folder
+         */
+        public void removeChild(Node child, Folder parent) {
+            recorded.add(() -> {
+                if (child.getParent() != parent)
+                    return;
+                Run run = getRun(false, parent);
+                parent.removeChild(child);
+                run.nodes.add(child);
+            });
+        }
+
+        /**
+         * Renames a Node once the batch ends. Same as {@link Node#setTitle(String)} within the batch.
+         * @param node renamed Node
+         * @param title new title
+         */
+        public void rename(Node node, String title) {
+            recorded.add(() -> node.setTitle(title));
+        }
+
+        private Run getRun(boolean insert, Folder parent) {
+            Run run = last_runs.get(parent);
+            if (run == null || run.insert != insert) {
+                run = new Run(insert, parent);
+                runs.add(run);
+                last_runs.put(parent, run);
+            }
+            return run;
+        }
+
+        private void nodeChanged(Node node, NodeEvent.Property property) {
+            changed.computeIfAbsent(node, k -> EnumSet.noneOf(NodeEvent.Property.class)).add(property);
+        }
+
+        /**
+         * Applies the changes recorded so far, holding the structure lock once for all of them.
+         */
+        private void apply() {
+            if (recorded.isEmpty())
+                return;
+            synchronized (indexer.getLock()) {
+                try {
+                    for (Runnable change : recorded)
+                        change.run();
+                } finally {
+                    recorded.clear();
+                }
+            }
+        }
+
+        /**
+         * Applies the changes recorded so far and notifies listeners about everything the batch did, then starts
+         * collecting anew.
+         */
+        private void flush() {
+            apply();
+            fireEvents();
+        }
+
+        /**
+         * Notifies listeners about everything the batch applied so far, and starts collecting anew.
+         */
+        private void fireEvents() {
+            if (runs.isEmpty() && changed.isEmpty())
+                return;
+            ArrayList<Run> runs = new ArrayList<>(this.runs);
+            LinkedHashMap<Node, EnumSet<NodeEvent.Property>> changed = new LinkedHashMap<>(this.changed);
+            this.runs.clear();
+            this.last_runs.clear();
+            this.changed.clear();
+
+            EventListener[] listeners = listener_list.getListeners(TreeModelListener.class);
+            for (Run run : runs) {
+                TreeModelEvent event = run.toEvent();
+                for (EventListener listener : listeners) {
+                    if (run.insert)
+                        ((TreeModelListener) listener).treeNodesInserted(event);
+                    else
+                        ((TreeModelListener) listener).treeNodesRemoved(event);
+                }
+            }
+
+            // one event per parent, carrying the changed property if all of its children changed the same one
+            LinkedHashMap<Node, ArrayList<Node>> by_parent = new LinkedHashMap<>();
+            for (Node node : changed.keySet()) {
+                if (node == root_folder) {
+                    fireNodesChanged(new TreeNodeChangedEvent(FolderTree.this, new Object[] {node}, null, null,
+                            single(changed.get(node))));
+                } else if (isAttached(node)) {
+                    by_parent.computeIfAbsent(node.getParent(), k -> new ArrayList<>()).add(node);
+                }
+            }
+            for (Map.Entry<Node, ArrayList<Node>> entry : by_parent.entrySet()) {
+                Folder parent = (Folder) entry.getKey();
+                ArrayList<Node> nodes = entry.getValue();
+                nodes.sort(Comparator.comparingInt(parent::indexOf));
+                int[] indices = new int[nodes.size()];
+                EnumSet<NodeEvent.Property> properties = EnumSet.noneOf(NodeEvent.Property.class);
+                for (int i = 0; i < indices.length; i++) {
+                    indices[i] = parent.indexOf(nodes.get(i));
+                    properties.addAll(changed.get(nodes.get(i)));
+                }
+                fireNodesChanged(new TreeNodeChangedEvent(FolderTree.this, parent.getPathArray().getPath(),
+                        indices, nodes.toArray(), single(properties)));
+            }
+            modification_count++;
+        }
+
+        private NodeEvent.Property single(EnumSet<NodeEvent.Property> properties) {
+            return (properties.size() == 1) ? properties.iterator().next() : null;
+        }
+
+        private boolean isAttached(Node node) {
+            Node top = node;
+            while (top.getParent() != null)
+                top = top.getParent();
+            return top == root_folder;
+        }
+
+        private void fireNodesChanged(TreeModelEvent event) {
+            EventListener[] listeners = listener_list.getListeners(TreeModelListener.class);
+            for (EventListener listener : listeners) ((TreeModelListener) listener).treeNodesChanged(event);
+        }
+    }
+    //endregion
     
+    /**
+     * Renames the node at the end of the path. The title index picks the new title up through
+     * {@link Node#setTitle(String)}.
+     * @param path path to the renamed node
+     * @param newValue new title
+     */
     @Override
     public void valueForPathChanged(TreePath path, Object newValue) {
         System.out.println("INFO: Changing node at path " + path.toString() + " to " + newValue.toString() + ".");
         Node node = (Node)path.getLastPathComponent();
         node.setTitle(newValue.toString());
+        modification_count++;
     }
 
     /**
@@ -171,22 +500,404 @@ public class FolderTree implements TreeModel {
      * @param parent parent Folder.
      */
     public void sortChildren(Folder parent) {
-        parent.sort();
-        TreeModelEvent event = new TreeModelEvent(this, parent.getPathArray());
-        EventListener[] listeners = listener_list.getListeners(TreeModelListener.class);
-        for (EventListener listener : listeners) ((TreeModelListener) listener).treeStructureChanged(event);
+        sortChildren(parent, Comparator.naturalOrder());
     }
 
     /**
      * Sort children of a parent Folder using provided Comparator implementation. Sorts recursively over all
-     * sub-folders.
+     * sub-folders - large structures in parallel, see {@link ParallelSort}. The sort is stable. Listeners get a single
+     * structure change of the parent once the whole structure is sorted.
      * @param parent parent Folder.
      * @param comparator provided Comparator.
      */
-    public void sortChildren(Folder parent, Comparator<Node> comparator) {
-        parent.sort(comparator);
+    public void sortChildren(Folder parent, Comparator<? super Node> comparator) {
+        if (inBatch())
+            batch.flush(); // indices of held back events are only valid before the sort
+        synchronized (indexer.getLock()) {
+            parallel_sort.sort(parent, comparator);
+        }
         TreeModelEvent event = new TreeModelEvent(this, parent.getPathArray());
         EventListener[] listeners = listener_list.getListeners(TreeModelListener.class);
         for (EventListener listener : listeners) ((TreeModelListener) listener).treeStructureChanged(event);
+        modification_count++;
+    }
+
+    //region Search
+    /**
+     * Returns the number of changes made to the tree so far - inserted, removed, renamed, edited or sorted Nodes.
+     * Changes made directly on Folders, bypassing the TreeModel, aren't counted.
+     * @return modification count
+     */
+    public long getModificationCount() {
+        return modification_count;
+    }
+
+    /**
+     * @return statistics of the search result cache
+     */
+    public QueryCache.Statistics getQueryCacheStatistics() {
+        return query_cache.getStatistics();
+    }
+
+    /**
+     * Non-case-sensitive search on contents of all Snippets in the tree. Gives the same results as
+     * {@link Folder#searchContent(String)} on the root Folder, but narrows the search down with a trigram index first.
+     * The index is built on first use and kept up to date by {@link #insertNodeInto(Node, Folder)},
+     * {@link #removeChild(Node, Folder)} and {@link Snippet#set(String)}. Terms too short to be narrowed down are
+     * searched for with {@link ParallelSearch}. Results are cached until the tree changes.
+     * @param term search term to be compared against snippet contents
+     * @return ArrayList of matching Snippets
+     */
+    public ArrayList<Node> searchContent(String term) {
+        return query_cache.get("content", term, modification_count, () -> {
+            TrigramIndex index = getContentIndex();
+            return indexer.read(() -> {
+                if (!index.isSelective(term)) // every Snippet is a candidate, scan the tree on all cores instead
+                    return parallel_search.searchContent(root_folder, term);
+                return index.search(term);
+            });
+        });
+    }
+
+    /**
+     * Non-case-sensitive search on titles of all Nodes in the tree, the root Folder included. Gives the same results
+     * as {@link Folder#searchTitle(String)} on the root Folder without traversing the tree. The index is built on
+     * first use and kept up to date by {@link #insertNodeInto(Node, Folder)}, {@link #removeChild(Node, Folder)} and
+     * {@link #valueForPathChanged(TreePath, Object)}. Results are cached until the tree changes.
+     * @param term String to be searched for
+     * @return ArrayList of matching Nodes
+     */
+    public ArrayList<Node> searchTitle(String term) {
+        return query_cache.get("title", term, modification_count, () -> {
+            TitleIndex index = getTitleIndex();
+            return indexer.read(() -> index.search(term));
+        });
+    }
+
+    /**
+     * Non-case-sensitive search for Nodes whose titles start with the passed prefix.
+     * @see #searchTitle(String)
+     * @param prefix beginning of searched titles
+     * @return ArrayList of matching Nodes
+     */
+    public ArrayList<Node> searchTitlePrefix(String prefix) {
+        return query_cache.get("prefix", prefix, modification_count, () -> {
+            TitleIndex index = getTitleIndex();
+            return indexer.read(() -> index.searchPrefix(prefix));
+        });
+    }
+
+    /**
+     * Non-case-sensitive fuzzy search on titles of all Nodes in the tree. Finds titles that are at most max_distance
+     * edits away from the term, closest matches first. Served by a BK-tree kept up to date the same way as the title
+     * index used by {@link #searchTitle(String)}. Results are cached until the tree changes.
+     * @param term String to be searched for
+     * @param max_distance maximum edit distance
+     * @return ArrayList of matching Nodes, ranked by distance
+     */
+    public ArrayList<Node> searchTitleFuzzy(String term, int max_distance) {
+        return query_cache.get("fuzzy" + max_distance, term, modification_count, () -> {
+            ArrayList<Node> found = new ArrayList<>();
+            for (FuzzyTitleIndex.Match match : searchTitleFuzzyRanked(term, max_distance))
+                found.add(match.getNode());
+            return found;
+        });
+    }
+
+    /**
+     * Fuzzy search on titles returning the edit distance of every match.
+     * @see #searchTitleFuzzy(String, int)
+     * @param term String to be searched for
+     * @param max_distance maximum edit distance
+     * @return list of matches, ranked by distance
+     */
+    public List<FuzzyTitleIndex.Match> searchTitleFuzzyRanked(String term, int max_distance) {
+        FuzzyTitleIndex index = getFuzzyIndex();
+        return indexer.read(() -> index.search(term, max_distance));
+    }
+
+    /**
+     * Returns the number of Snippets in every language found in the tree, most common first. Languages differing
+     * only in case or surrounding whitespace are counted together. Served by a facet index kept up to date by
+     * {@link #insertNodeInto(Node, Folder)}, {@link #removeChild(Node, Folder)} and {@link Snippet#setLang(String)},
+     * so no Snippet is looked at.
+     * @return language -> number of Snippets
+     */
+    public LinkedHashMap<String, Integer> getLanguageCounts() {
+        LanguageIndex index = getLanguageIndex();
+        return indexer.read(index::getCounts);
+    }
+
+    /**
+     * @param lang language, non-case-sensitive
+     * @return number of Snippets in the language
+     */
+    public int countLanguage(String lang) {
+        LanguageIndex index = getLanguageIndex();
+        return indexer.read(() -> index.count(lang));
+    }
+
+    /**
+     * Finds all Snippets written in the language. Non-case-sensitive. Results are cached until the tree changes.
+     * @param lang language
+     * @return ArrayList of Snippets in structure order
+     */
+    public ArrayList<Node> searchLanguage(String lang) {
+        return query_cache.get("lang", LanguageIndex.normalize(lang), modification_count,
+                () -> {
+                    LanguageIndex index = getLanguageIndex();
+                    return indexer.read(() -> index.search(lang));
+                });
+    }
+
+    /**
+     * Finds Snippets written in the language whose titles contain the term. Non-case-sensitive. Rare languages are
+     * searched by checking the titles of their Snippets, common ones by filtering results of the title index through
+     * the language bitmap. Results are cached until the tree changes.
+     * @param term String to be searched for in titles
+     * @param lang language
+     * @return ArrayList of matching Snippets in structure order
+     */
+    public ArrayList<Node> searchTitle(String term, String lang) {
+        String key = LanguageIndex.normalize(lang) + "\u0000" + term;
+        return query_cache.get("title+lang", key, modification_count, () -> {
+            LanguageIndex index = getLanguageIndex();
+            TitleIndex titles = getTitleIndex();
+            return indexer.read(() -> {
+                if (index.count(lang) * LANGUAGE_SCAN_RATIO <= titles.size())
+                    return index.search(lang, new SearchTerm(term));
+                return index.filter(titles.search(term), lang);
+            });
+        });
+    }
+
+    /**
+     * Keeps only the Snippets written in the language, e.g. to narrow down results of another search.
+     * @param nodes Nodes to be filtered, order is kept
+     * @param lang language, non-case-sensitive
+     * @return ArrayList of Snippets in the language
+     */
+    public ArrayList<Node> filterLanguage(Collection<? extends Node> nodes, String lang) {
+        LanguageIndex index = getLanguageIndex();
+        return indexer.read(() -> index.filter(nodes, lang));
+    }
+
+    /**
+     * Finds Nodes created within the range, the root Folder included. Served by an ordered index kept up to date by
+     * {@link #insertNodeInto(Node, Folder)}, {@link #removeChild(Node, Folder)} and the Node setters, so only the
+     * matching Nodes are looked at. Results are cached until the tree changes.
+     * @param from start of the range, inclusive, null for no lower bound
+     * @param to end of the range, exclusive, null for no upper bound
+     * @return ArrayList of matching Nodes, oldest first
+     */
+    public ArrayList<Node> searchCreated(Date from, Date to) {
+        return searchDate(DateIndex.Field.CREATED, from, to);
+    }
+
+    /**
+     * Finds Nodes last edited within the range, e.g. within the last 24 hours.
+     * @see #searchCreated(Date, Date)
+     * @param from start of the range, inclusive, null for no lower bound
+     * @param to end of the range, exclusive, null for no upper bound
+     * @return ArrayList of matching Nodes, least recently edited first
+     */
+    public ArrayList<Node> searchEdited(Date from, Date to) {
+        return searchDate(DateIndex.Field.EDITED, from, to);
+    }
+
+    /**
+     * Finds the most recently edited Nodes.
+     * @see #searchCreated(Date, Date)
+     * @param count maximum number of returned Nodes
+     * @return ArrayList of at most count Nodes, most recently edited first
+     */
+    public ArrayList<Node> getRecentlyEdited(int count) {
+        return query_cache.get("recent", Integer.toString(count), modification_count,
+                () -> {
+                    DateIndex index = getDateIndex();
+                    return indexer.read(() -> index.searchLatest(DateIndex.Field.EDITED, count));
+                });
+    }
+
+    private ArrayList<Node> searchDate(DateIndex.Field field, Date from, Date to) {
+        String range = ((from != null) ? from.getTime() : "") + ".." + ((to != null) ? to.getTime() : "");
+        return query_cache.get(field.toString(), range, modification_count,
+                () -> {
+                    DateIndex index = getDateIndex();
+                    return indexer.read(() -> index.search(field, from, to));
+                });
+    }
+
+    /**
+     * Full-text search over Snippet contents and titles, ranked by relevance (BM25). Unlike
+     * {@link #searchContent(String)}, the query is split into words and Snippets containing any of them match, best
+     * matches first. Only the top k are kept while scoring. The index is built on first use and kept up to date by
+     * {@link Snippet#set(String)}, renames, inserts and removals.
+     * @param query words to be searched for
+     * @param k maximum number of returned matches
+     * @return at most k matches with their scores, best first
+     */
+    public List<Bm25Index.Match> searchRanked(String query, int k) {
+        Bm25Index index = getRankedIndex();
+        return indexer.read(() -> index.search(query, k));
+    }
+
+    /**
+     * Runs a compound query, e.g. {@code title:cube lang:java edited:>2026-01-01 content:"public void"}. The query
+     * is answered through whichever index is expected to produce the fewest candidates, the remaining clauses are
+     * checked on those candidates only. Results are cached until the tree changes.
+     * @see Query
+     * @param query query text
+     * @return ArrayList of Nodes matching every clause, in structure order
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public ArrayList<Node> query(String query) {
+        Query parsed = Query.parse(query);
+        return query_cache.get("query", parsed.toString(), modification_count, () -> {
+            QueryPlanner planner = getPlanner(parsed);
+            return indexer.read(() -> planner.plan(parsed).execute());
+        });
+    }
+
+    /**
+     * Describes how {@link #query(String)} would answer the query - the considered access paths with their
+     * estimated costs and the chosen one.
+     * @param query query text
+     * @return multi-line description of the plan
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public String explain(String query) {
+        Query parsed = Query.parse(query);
+        QueryPlanner planner = getPlanner(parsed);
+        return indexer.read(() -> planner.plan(parsed).explain());
+    }
+
+    /**
+     * Finds the first Node below the root Folder whose title contains the term, in structure order. Non-case-sensitive.
+     * Stops at the first match without using any index, but keeps the tree locked until then - meant to be called off
+     * the event dispatch thread.
+     * @param term String to be searched for
+     * @return first matching Node, empty if there is none
+     */
+    public Optional<Node> findFirstTitle(String term) {
+        synchronized (indexer.getLock()) {
+            return root_folder.streamTitle(term).filter(found -> found != root_folder).findFirst();
+        }
+    }
+
+    /**
+     * Lists all Nodes below the root Folder as they are now, in structure order. The tree is locked only while the
+     * list is copied, so a slow scan over the list doesn't hold up changes to the tree.
+     * @return ArrayList of all Nodes except the root Folder
+     */
+    public ArrayList<Node> snapshot() {
+        synchronized (indexer.getLock()) {
+            ArrayList<Node> nodes = new ArrayList<>(root_folder.getSubtreeSize());
+            root_folder.stream().filter(node -> node != root_folder).forEach(nodes::add);
+            return nodes;
+        }
+    }
+
+    /**
+     * Copies the whole structure into a {@link CompactTree}, e.g. to browse a very large one. The copy doesn't follow
+     * later changes to this tree.
+     * @return new compact tree with the root Folder as its root
+     */
+    public CompactTree toCompactTree() {
+        synchronized (indexer.getLock()) {
+            return CompactTree.of(root_folder);
+        }
+    }
+
+    /**
+     * Reports how much of the whole structure is shared rather than copied, see {@link Folder#getSharingReport()}.
+     * Walks every Node and reads every Snippet body, so call it off the event dispatch thread.
+     * @return sharing statistics of the root Folder
+     */
+    public Folder.SharingReport getSharingReport() {
+        synchronized (indexer.getLock()) {
+            return root_folder.getSharingReport();
+        }
+    }
+
+    /**
+     * Creates a planner with the indexes useful for the query, registering the missing ones with the indexer.
+     */
+    private QueryPlanner getPlanner(Query query) {
+        return new QueryPlanner(root_folder,
+                query.uses(Query.Clause.Field.TITLE) ? getTitleIndex() : null,
+                query.uses(Query.Clause.Field.LANG) ? getLanguageIndex() : null,
+                query.uses(Query.Clause.Field.CREATED) || query.uses(Query.Clause.Field.EDITED) ? getDateIndex() : null,
+                query.uses(Query.Clause.Field.CONTENT) ? getContentIndex() : null);
+    }
+
+    private synchronized TrigramIndex getContentIndex() {
+        if (content_index == null)
+            content_index = indexer.register(new TrigramIndex());
+        return content_index;
+    }
+
+    private synchronized TitleIndex getTitleIndex() {
+        if (title_index == null)
+            title_index = indexer.register(new TitleIndex());
+        return title_index;
+    }
+
+    private synchronized FuzzyTitleIndex getFuzzyIndex() {
+        if (fuzzy_index == null)
+            fuzzy_index = indexer.register(new FuzzyTitleIndex());
+        return fuzzy_index;
+    }
+
+    private synchronized LanguageIndex getLanguageIndex() {
+        if (language_index == null)
+            language_index = indexer.register(new LanguageIndex());
+        return language_index;
+    }
+
+    private synchronized Bm25Index getRankedIndex() {
+        if (ranked_index == null)
+            ranked_index = indexer.register(new Bm25Index());
+        return ranked_index;
+    }
+
+    private synchronized DateIndex getDateIndex() {
+        if (date_index == null)
+            date_index = indexer.register(new DateIndex());
+        return date_index;
+    }
+    //endregion
+
+    /**
+     * Waits until the indexes reflect every change made to the tree so far. Searches do this on their own, it's only
+     * needed to measure how long indexing takes.
+     */
+    public void awaitIndexes() {
+        indexer.awaitCaughtUp();
+    }
+
+    /**
+     * Turns edits made directly on Nodes within the tree into {@link TreeNodeChangedEvent}s, so the indexer and the
+     * {@link javax.swing.JTree} both learn about them.
+     */
+    private class NodeChangeForwarder implements NodeListener {
+        @Override
+        public void nodeChanged(NodeEvent e) {
+            if (inBatch()) {
+                batch.nodeChanged(e.getNode(), e.getProperty());
+                return;
+            }
+            Node node = e.getNode();
+            Folder parent = (Folder) node.getParent();
+            TreeModelEvent event;
+            if (parent == null)
+                event = new TreeNodeChangedEvent(FolderTree.this, new Object[] {node}, null, null, e.getProperty());
+            else
+                event = new TreeNodeChangedEvent(FolderTree.this, parent.getPathArray().getPath(),
+                        new int[] {getIndexOfChild(parent, node)}, new Object[] {node}, e.getProperty());
+            EventListener[] listeners = listener_list.getListeners(TreeModelListener.class);
+            for (EventListener listener : listeners) ((TreeModelListener) listener).treeNodesChanged(event);
+            modification_count++;
+        }
     }
-}
\ No newline at end of file
+}
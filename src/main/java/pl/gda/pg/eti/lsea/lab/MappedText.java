@@ -0,0 +1,284 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only text storage in a memory-mapped file, outside of the Java heap. Texts are written as UTF-8 and
+ * addressed by their offset and length in bytes. They're decoded on demand, and the most recently read ones are kept
+ * decoded in a small on-heap cache. Texts can be searched without decoding them, see
+ * {@link #contains(long, int, SearchTerm)}.
+ *
+ * The file is mapped in segments, as a single mapping is limited to 2 GB, and no text crosses a segment boundary.
+ * Space of texts that are no longer needed isn't reclaimed - the file only grows until it's closed.
+ *
+ * Thread-safe. Texts are decoded and searched on private views of their segments, without holding any lock - only
+ * the list of segments and the hot cache are locked, each for a short while.
+ */
+public class MappedText implements Closeable {
+
+    static final int SEGMENT_SIZE = 64 << 20; // size of a mapped segment, bigger only for texts that don't fit
+    static final int DEFAULT_CACHE_CHARS = 4 << 20; // capacity of the hot cache, in chars
+
+    /**
+     * Non-ASCII characters folding to ASCII ones (e.g. the Kelvin sign), by the first two bytes of their UTF-8 form.
+     * Texts containing them can't be matched byte by byte against an ASCII term.
+     */
+    private static final boolean[] FOLDS_TO_ASCII = new boolean[1 << 16];
+    static {
+        for (int c = 0x80; c <= Character.MAX_VALUE; c++) {
+            if (!Character.isSurrogate((char) c) && SearchTerm.fold((char) c) < 0x80) {
+                byte[] bytes = String.valueOf((char) c).getBytes(StandardCharsets.UTF_8);
+                FOLDS_TO_ASCII[(bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF)] = true;
+            }
+        }
+    }
+
+    //region Fields
+    private final Path file; // backing file, deleted when closed
+    private final FileChannel channel; // channel the segments are mapped from
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>(); // start -> segment, guarded by this
+    private long segment_end = 0; // end offset of the last segment, guarded by this
+    private long end = 0; // offset the next text is written at, guarded by this
+    private final LinkedHashMap<Long, String> hot; // offset -> decoded text, least recently used first, locked itself
+    private final long cache_chars; // capacity of the hot cache, in chars
+    private long cached_chars = 0; // chars currently in the hot cache, guarded by hot
+    private long hits = 0; // reads answered by the hot cache, guarded by hot
+    private long misses = 0; // reads that had to decode, guarded by hot
+    //endregion
+
+    //region Constructors
+    /**
+     * Creates storage in a new temporary file, deleted on close or exit.
+     * @throws UncheckedIOException if the file can't be created
+     */
+    public MappedText() {
+        this(DEFAULT_CACHE_CHARS);
+    }
+
+    /**
+     * Creates storage in a new temporary file, deleted on close or exit.
+     * @param cache_chars capacity of the hot cache, in chars; 0 disables it
+     * @throws UncheckedIOException if the file can't be created
+     */
+    public MappedText(long cache_chars) {
+        try {
+            this.file = Files.createTempFile("snippets", ".txt");
+            this.file.toFile().deleteOnExit();
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can't create the mapped text file", ex);
+        }
+        this.cache_chars = cache_chars;
+        this.hot = new LinkedHashMap<>(16, 0.75f, true);
+    }
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of bytes written so far, including space of texts no longer needed
+     */
+    public synchronized long size() {
+        return end;
+    }
+    public long getCacheHits() {
+        synchronized (hot) {
+            return hits;
+        }
+    }
+    public long getCacheMisses() {
+        synchronized (hot) {
+            return misses;
+        }
+    }
+    //endregion
+
+    /**
+     * Appends a text.
+     * @param bytes UTF-8 encoded text
+     * @return offset of the text, to be read with {@link #read(long, int)}
+     * @throws UncheckedIOException if the file can't be extended
+     */
+    public synchronized long append(byte[] bytes) {
+        if (end + bytes.length > segment_end) {
+            // the rest of the last segment is left unused, texts don't cross segment boundaries
+            long size = Math.max(SEGMENT_SIZE, bytes.length);
+            try {
+                segments.put(segment_end, channel.map(FileChannel.MapMode.READ_WRITE, segment_end, size));
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Can't extend the mapped text file", ex);
+            }
+            end = segment_end;
+            segment_end += size;
+        }
+        long offset = end;
+        segment(offset).put(bytes);
+        end += bytes.length;
+        return offset;
+    }
+
+    /**
+     * Reads a text, from the hot cache if it's there.
+     * @param offset offset returned by {@link #append(byte[])}
+     * @param length length of the text, in bytes
+     * @return decoded text
+     */
+    public String read(long offset, int length) {
+        synchronized (hot) {
+            String text = hot.get(offset);
+            if (text != null) {
+                hits++;
+                return text;
+            }
+            misses++;
+        }
+        byte[] bytes = new byte[length];
+        segment(offset).get(bytes);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        cache(offset, text);
+        return text;
+    }
+
+    /**
+     * Checks if a text contains the term, ignoring case the same way {@link SearchTerm#matches(CharSequence)} does.
+     * Texts that are in the hot cache are searched there. Otherwise ASCII terms are matched directly on the mapped
+     * bytes - UTF-8 never encodes a non-ASCII character with ASCII bytes - and only other terms are decoded.
+     * @param offset offset returned by {@link #append(byte[])}
+     * @param length length of the text, in bytes
+     * @param term precompiled search term
+     * @return true if the term was found
+     */
+    public boolean contains(long offset, int length, SearchTerm term) {
+        String text;
+        synchronized (hot) {
+            text = hot.get(offset);
+        }
+        if (text != null)
+            return term.matches(text);
+        byte[] pattern = asciiPattern(term);
+        if (pattern == null)
+            return term.matches(read(offset, length));
+
+        ByteBuffer buffer = segment(offset);
+        int start = buffer.position();
+        if (indexIn(buffer, start, start + length, pattern) >= 0)
+            return true;
+        // a few non-ASCII characters fold to ASCII ones, those texts are decoded after all
+        for (int i = start; i < start + length - 1; i++)
+            if (buffer.get(i) < 0 && FOLDS_TO_ASCII[(buffer.get(i) & 0xFF) << 8 | (buffer.get(i + 1) & 0xFF)])
+                return term.matches(read(offset, length));
+        return false;
+    }
+
+    /**
+     * Drops a text from the hot cache, e.g. once it's no longer needed. Its bytes stay in the file.
+     * @param offset offset returned by {@link #append(byte[])}
+     */
+    public void forget(long offset) {
+        synchronized (hot) {
+            String text = hot.remove(offset);
+            if (text != null)
+                cached_chars -= text.length();
+        }
+    }
+
+    /**
+     * Drops the mappings and deletes the file. Texts can't be read afterwards.
+     * @throws IOException if the file can't be closed or deleted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        segments.clear();
+        synchronized (hot) {
+            hot.clear();
+            cached_chars = 0;
+        }
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * @return private view of the segment containing the offset, positioned at the offset
+     */
+    private synchronized ByteBuffer segment(long offset) {
+        Map.Entry<Long, MappedByteBuffer> entry = segments.floorEntry(offset);
+        ByteBuffer buffer = entry.getValue().duplicate();
+        buffer.position((int) (offset - entry.getKey()));
+        return buffer;
+    }
+
+    private void cache(long offset, String text) {
+        if (text.length() > cache_chars / 4)
+            return; // a single text doesn't take over the whole cache
+        synchronized (hot) {
+            String old = hot.put(offset, text); // decoded by another thread in the meantime
+            cached_chars += text.length() - ((old != null) ? old.length() : 0);
+            Iterator<String> iterator = hot.values().iterator();
+            while (cached_chars > cache_chars && iterator.hasNext()) {
+                cached_chars -= iterator.next().length();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return folded term as bytes, null if it isn't ASCII or the locale folds ASCII letters its own way
+     */
+    private static byte[] asciiPattern(SearchTerm term) {
+        if (SearchTerm.foldsByLocale())
+            return null;
+        String folded = term.getFolded();
+        byte[] pattern = new byte[folded.length()];
+        for (int i = 0; i < pattern.length; i++) {
+            if (folded.charAt(i) >= 0x80)
+                return null;
+            pattern[i] = (byte) folded.charAt(i);
+        }
+        return pattern;
+    }
+
+    /**
+     * Horspool search of a folded ASCII pattern in a range of UTF-8 bytes, folding ASCII bytes as it goes.
+     * @return index of the first occurrence, -1 if there is none
+     */
+    private static int indexIn(ByteBuffer buffer, int from, int to, byte[] pattern) {
+        int m = pattern.length;
+        if (m == 0)
+            return from;
+        int[] shift = new int[128];
+        Arrays.fill(shift, m);
+        for (int i = 0; i < m - 1; i++)
+            shift[pattern[i]] = m - 1 - i;
+
+        int last = m - 1;
+        for (int i = from; i <= to - m; ) {
+            byte tail = fold(buffer.get(i + last));
+            if (tail == pattern[last]) {
+                int j = last - 1;
+                while (j >= 0 && fold(buffer.get(i + j)) == pattern[j])
+                    j--;
+                if (j < 0)
+                    return i;
+            }
+            i += (tail >= 0) ? shift[tail] : m; // bytes of non-ASCII characters aren't in the pattern
+        }
+        return -1;
+    }
+
+    private static byte fold(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+}
@@ -1,9 +1,16 @@
 package pl.gda.pg.eti.lsea.lab;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.swing.event.EventListenerList;
 import javax.swing.tree.TreePath;
 
 /**
@@ -11,12 +18,59 @@ import javax.swing.tree.TreePath;
  * @author Tomasz Wierciński
  */
 public abstract class Node implements Cloneable, Comparable<Node>, Serializable {
+
+    /**
+     * Decides which case-folded forms of Node properties are cached by the Nodes themselves. Caching trades memory
+     * for searches that neither fold nor allocate anything.
+     */
+    public enum FoldCache {
+        /**
+         * Nothing is cached, every search folds on the fly. Cached forms left from other modes are dropped as
+         * searches reach them.
+         */
+        NONE,
+        /**
+         * Titles and Snippet languages are cached - they're short, so this costs little memory.
+         */
+        TITLES,
+        /**
+         * Snippet contents are cached too, roughly doubling the memory taken by snippet bodies.
+         */
+        ALL
+    }
+
+    /**
+     * Path computed at a given time of the path clock, stale once the Node or any of its ancestors is renamed or
+     * moved at that time or later. Current without a check as long as the clock still shows that time. Fields are
+     * final, so a holder can be read by other threads without locking.
+     * @param <T> type of the value
+     */
+    private static final class Cached<T> {
+        final long time; // path clock time the value was computed at
+        final T value; // cached value
+
+        Cached(long time, T value) {
+            this.time = time;
+            this.value = value;
+        }
+    }
+
+    private static volatile FoldCache fold_cache = FoldCache.TITLES; // caching mode shared by all Nodes
+    // ticks twice whenever a Node on the path of some cached path is renamed or moved, starts after any change time
+    private static final AtomicLong path_clock = new AtomicLong(1);
     
     // region Fields
     protected String title;  // name of the node
     protected Node parent = null; // parent Node
     protected Date created; // date of creation of this Node
     protected Date edited; // date of last edit
+    private transient EventListenerList node_listeners = null; // listeners of this Node and its descendants
+    private transient String folded_title = null; // cached case-folded title, null if not computed
+    private transient Cached<String> cached_path = null; // path String as of some time, null if not computed
+    private transient Cached<TreePath> cached_tree_path = null; // TreePath as of some time, null if not computed
+    private transient volatile long path_changed = 0; // path clock time of the last rename or move of this Node
+    private transient volatile boolean on_cached_path = false; // true once a path through this Node was computed
+    transient int position = -1; // index among the parent's children, only valid if the parent says so
     //endregion
     
     //region Constructors
@@ -28,6 +82,16 @@ public abstract class Node implements Cloneable, Comparable<Node>, Serializable
         this.created = new Date();
         this.edited = (Date) this.created.clone();
     }
+
+    /**
+     * Creates a Node keeping the passed dates as they are, without copying them - e.g. null for Nodes that keep
+     * their properties elsewhere, see {@link CompactTree.View}.
+     */
+    Node(String title, Date created, Date edited) {
+        this.title = title;
+        this.created = created;
+        this.edited = edited;
+    }
     //endregion
 
     //region Getters
@@ -37,27 +101,157 @@ public abstract class Node implements Cloneable, Comparable<Node>, Serializable
     public Node getParent() {
         return parent;
     }
+    /**
+     * @return copy of the date of creation - changing it doesn't change the Node
+     */
     public Date getDateCreated() {
-        return created;
+        return (Date) created.clone();
     }
+    /**
+     * @return copy of the date of last edit - changing it doesn't change the Node
+     */
     public Date getDateEdited() {
-        return edited;
+        return (Date) edited.clone();
+    }
+    /**
+     * @return date of creation in epoch millis, read without copying the Date
+     */
+    public long getTimeCreated() {
+        return created.getTime();
+    }
+    /**
+     * @return date of last edit in epoch millis, read without copying the Date
+     */
+    public long getTimeEdited() {
+        return edited.getTime();
+    }
+
+    /**
+     * Returns the case-folded title. Cached until the title changes, unless caching is off.
+     * @see #setFoldCache(FoldCache)
+     * @return title folded with {@link SearchTerm#fold(String)}
+     */
+    public String getFoldedTitle() {
+        String folded = folded_title;
+        if (folded == null) {
+            folded = SearchTerm.fold(title);
+            if (fold_cache != FoldCache.NONE)
+                folded_title = folded;
+        }
+        return folded;
+    }
+
+    public static FoldCache getFoldCache() {
+        return fold_cache;
     }
     //endregion
 
     //region Setters
     public void setTitle(String title) {
+        if (parent instanceof Folder)
+            Folder.detachCopies((Folder) parent);
+        String old_title = this.title;
         this.title = title;
+        this.folded_title = null;
         this.edited = new Date();
+        pathChanged();
+        if (parent instanceof Folder)
+            ((Folder) parent).childRenamed(this, old_title);
+        fireNodeChanged(NodeEvent.Property.TITLE, old_title);
     }
     public void setParent(Node parent) {
         this.parent = parent;
+        pathChanged();
+    }
+
+    /**
+     * Makes cached paths of this Node and of the Nodes below it stale. Nothing to do if no path through this Node
+     * was ever computed, e.g. for a Node just built and attached. The clock ticks once more after the change is
+     * marked, so a path stamped with a time past the change was checked against it.
+     */
+    private void pathChanged() {
+        if (on_cached_path) {
+            path_changed = path_clock.incrementAndGet();
+            path_clock.incrementAndGet();
+        }
     }
+    /**
+     * Sets the date of creation. The Node keeps a copy, so the passed Date can be reused.
+     * @param created new date of creation
+     */
     public void setDateCreated(Date created) {
-        this.created = created;
+        if (parent instanceof Folder)
+            Folder.detachCopies((Folder) parent);
+        Date old_created = this.created;
+        this.created = (Date) created.clone();
+        fireNodeChanged(NodeEvent.Property.CREATED, old_created);
     }
+    /**
+     * Sets the date of last edit. The Node keeps a copy, so the passed Date can be reused.
+     * @param edited new date of last edit
+     */
     public void setDateEdited(Date edited) {
-        this.edited = edited;
+        if (parent instanceof Folder)
+            Folder.detachCopies((Folder) parent);
+        Date old_edited = this.edited;
+        this.edited = (Date) edited.clone();
+        fireNodeChanged(NodeEvent.Property.EDITED, old_edited);
+    }
+
+    /**
+     * Switches caching of case-folded properties for all Nodes. Lowering the mode doesn't walk any structure, cached
+     * forms are dropped lazily, see {@link #clearFoldCache()}.
+     * @param mode new caching mode
+     */
+    public static void setFoldCache(FoldCache mode) {
+        fold_cache = mode;
+    }
+
+    /**
+     * Drops cached case-folded properties of this Node.
+     */
+    public void clearFoldCache() {
+        folded_title = null;
+    }
+    //endregion
+
+    //region Listeners
+    /**
+     * Registers a listener notified about property changes of this Node and of every Node below it.
+     * @param l listener
+     */
+    public void addNodeListener(NodeListener l) {
+        if (node_listeners == null)
+            node_listeners = new EventListenerList();
+        node_listeners.add(NodeListener.class, l);
+    }
+
+    /**
+     * Removes passed {@link NodeListener} from list of listeners.
+     * @param l listener
+     */
+    public void removeNodeListener(NodeListener l) {
+        if (node_listeners != null)
+            node_listeners.remove(NodeListener.class, l);
+    }
+
+    /**
+     * Notifies listeners of this Node and all of its ancestors about a changed property. The event is only created
+     * if there is someone to receive it, so detached Nodes pay nothing but the walk up the structure.
+     * @param property changed property
+     * @param old_value value of the property before the change
+     */
+    protected void fireNodeChanged(NodeEvent.Property property, Object old_value) {
+        NodeEvent event = null;
+        for (Node node = this; node != null; node = node.parent) {
+            if (node.node_listeners == null)
+                continue;
+            for (NodeListener listener : node.node_listeners.getListeners(NodeListener.class)) {
+                if (event == null)
+                    event = new NodeEvent(this, property, old_value);
+                listener.nodeChanged(event);
+            }
+        }
     }
     //endregion
 
@@ -80,6 +274,14 @@ public abstract class Node implements Cloneable, Comparable<Node>, Serializable
         return title.compareTo(anotherNode.getTitle());
     }
 
+    /**
+     * Returns the number of Nodes in the structure starting at this Node, this Node included.
+     * @return 1 for a Snippet, 1 + number of descendants for a Folder
+     */
+    public int getSubtreeSize() {
+        return 1;
+    }
+
     /**
      * Returns file structure from Node as a string to be displayed.
      * @return String
@@ -94,41 +296,250 @@ public abstract class Node implements Cloneable, Comparable<Node>, Serializable
      * @return file structure as String to be displayed
      */
     protected String getStructure(int depth) {
-        return "    ".repeat(depth) + "|-- " + title;
+        return getStructureLine(depth);
+    }
+
+    /**
+     * @param depth depth of the node in the structure
+     * @return line of {@link #getStructure()} showing this Node alone
+     */
+    String getStructureLine(int depth) {
+        return "    ".repeat(depth) + "|-- " + getTitle();
+    }
+
+    /**
+     * Walks this Node and every Node below it depth-first, with an explicit stack - the depth of the structure isn't
+     * limited by the call stack. Every Node is entered before and left after the Nodes below it, see
+     * {@link NodeVisitor}.
+     * @param visitor visitor of the Nodes
+     * @return false if the visitor stopped the walk, true otherwise
+     */
+    public boolean walk(NodeVisitor visitor) {
+        Deque<Iterator<Node>> stack = new ArrayDeque<>(); // iterators over children of entered Folders
+        Deque<Node> entered = new ArrayDeque<>(); // entered Folders, waiting to be left
+        Node next = this;
+        while (true) {
+            if (next != null) {
+                int depth = entered.size();
+                NodeVisitor.Control control = visitor.enter(next, depth);
+                if (control == NodeVisitor.Control.STOP)
+                    return false;
+                if (control == NodeVisitor.Control.CONTINUE && next instanceof Folder) {
+                    stack.push(((Folder) next).getChildren().iterator());
+                    entered.push(next);
+                } else {
+                    visitor.leave(next, depth);
+                }
+            }
+            Iterator<Node> top = stack.peek();
+            if (top == null)
+                return true;
+            if (top.hasNext()) {
+                next = top.next();
+            } else {
+                stack.pop();
+                Node folder = entered.pop();
+                visitor.leave(folder, entered.size());
+                next = null;
+            }
+        }
     }
     
     /**
-     * Finds a full path for the current Node within a larger hierarchy.
+     * Finds a full path for the current Node within a larger hierarchy. Paths are memoized per Node. Renaming or
+     * moving a Node marks it with the time of the change instead of rewriting the affected structure. A cached path
+     * stamped with the current clock time is returned at once. After a change anywhere, it is checked once against
+     * the Nodes on it and stamped again if none of them changed, so a change only makes the paths below the changed
+     * Node stale. Stale paths are rebuilt when asked for, from the nearest ancestor whose path is still current,
+     * without recursion. Only this Node and its parent keep the rebuilt path, so siblings reuse it while deep
+     * structures don't keep a String for every level.
      * @return path to this Node as a String
      */
     public String getPath() {
-        return ((parent != null) ? parent.getPath() + "/" : "") + title;
+        Cached<String> cached = cached_path;
+        long now = path_clock.get();
+        if (cached != null && cached.time == now)
+            return cached.value;
+        if (cached != null && cached.time > lastPathChange()) {
+            cached_path = new Cached<>(now, cached.value);
+            return cached.value;
+        }
+
+        ArrayList<Node> chain = getPathChain();
+        long[] changed = getPathChanges(chain);
+        int current = chain.size(); // index of the nearest Node with a current path, chain.size() if none
+        String prefix = null; // path of that Node
+        for (int i = 0; i < chain.size(); i++) {
+            Cached<String> path = chain.get(i).cached_path;
+            if (path != null && path.time > changed[i]) {
+                current = i;
+                prefix = path.value;
+                break;
+            }
+        }
+
+        StringBuilder path = new StringBuilder((prefix == null) ? "" : prefix);
+        boolean first = (prefix == null);
+        int parent_length = 0; // length of the parent's path
+        for (int i = current - 1; i >= 0; i--) {
+            if (i == 0)
+                parent_length = path.length();
+            if (!first)
+                path.append('/');
+            path.append(chain.get(i).title);
+            first = false;
+        }
+
+        String out = path.toString();
+        if (current > 1)
+            parent.cached_path = new Cached<>(now, out.substring(0, parent_length));
+        cached_path = new Cached<>(now, out);
+        return out;
     }
+
+    /**
+     * Finds the TreePath of the current Node, from the topmost Node down. Memoized and checked the same way as
+     * {@link #getPath()}, and paths of siblings share the TreePath of their parent.
+     * @return path to this Node as a TreePath
+     */
     public TreePath getPathArray() {
-        TreePath path;
-        if (parent == null)
-            path = new TreePath(this);
-        else {
-            path = parent.getPathArray().pathByAddingChild(this);
+        Cached<TreePath> cached = cached_tree_path;
+        long now = path_clock.get();
+        if (cached != null && cached.time == now)
+            return cached.value;
+        if (cached != null && cached.time > lastPathChange()) {
+            cached_tree_path = new Cached<>(now, cached.value);
+            return cached.value;
+        }
+
+        ArrayList<Node> chain = getPathChain();
+        long[] changed = getPathChanges(chain);
+        int current = chain.size(); // index of the nearest Node with a current TreePath, chain.size() if none
+        TreePath path = null;
+        for (int i = 0; i < chain.size(); i++) {
+            Cached<TreePath> node_path = chain.get(i).cached_tree_path;
+            if (node_path != null && node_path.time > changed[i]) {
+                current = i;
+                path = node_path.value;
+                break;
+            }
+        }
+        for (int i = current - 1; i >= 0; i--) {
+            Node node = chain.get(i);
+            path = (path == null) ? new TreePath(node) : path.pathByAddingChild(node);
+            node.cached_tree_path = new Cached<>(now, path);
         }
         return path;
     }
+
+    /**
+     * @return path clock time of the last rename or move of this Node or any of its ancestors
+     */
+    private long lastPathChange() {
+        long last = 0;
+        for (Node node = this; node != null; node = node.parent)
+            last = Math.max(last, node.path_changed);
+        return last;
+    }
+
+    /**
+     * Lists this Node and its ancestors, bottom-up, marking them as lying on a cached path.
+     */
+    private ArrayList<Node> getPathChain() {
+        ArrayList<Node> chain = new ArrayList<>();
+        for (Node node = this; node != null; node = node.parent) {
+            if (!node.on_cached_path)
+                node.on_cached_path = true;
+            chain.add(node);
+        }
+        return chain;
+    }
+
+    /**
+     * @return for every Node of the chain, the path clock time of the last change of it or any Node above it
+     */
+    private static long[] getPathChanges(ArrayList<Node> chain) {
+        long[] changed = new long[chain.size()];
+        long last = 0;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            last = Math.max(last, chain.get(i).path_changed);
+            changed[i] = last;
+        }
+        return changed;
+    }
     
     public Node getNodeFromPath(String path) {
         String[] path_arr = path.split("/");
-        if (path_arr[0].isEmpty())
-            path_arr = Arrays.copyOfRange(path_arr, 1, path_arr.length);
-        return getNodeFromPath(path_arr);
+        return getNodeFromPath(path_arr, (path_arr.length > 0 && path_arr[0].isEmpty()) ? 1 : 0);
     }
     public Node getNodeFromPath(String[] path) {
-        Node out;
-        if (path.length == 0)
-            out = this;
-        else
-            out = null;
-        return out;
+        return getNodeFromPath(path, 0);
+    }
+
+    /**
+     * Finds the Node at the path relative to this Node, starting at an offset instead of copying the path.
+     * @param path titles of consecutive Nodes below this Node
+     * @param offset index of the first title to be looked up
+     * @return found Node, this Node if the offset is past the path, null if there is no such Node
+     */
+    public Node getNodeFromPath(String[] path, int offset) {
+        return (offset >= path.length) ? this : null;
     }
     
+    //region Streaming search
+    /**
+     * Returns a lazy, sequential stream of this Node and every Node below it, in depth-first order. Nodes are only
+     * visited as the stream is consumed, so short-circuiting operations such as {@link Stream#limit(long)} or
+     * {@link Stream#findFirst()} stop the traversal as soon as they're satisfied. The stream splits by subtrees, so
+     * it can be made parallel with {@link Stream#parallel()}.
+     * @see NodeSpliterator
+     * @return stream of Nodes in structure order
+     */
+    public Stream<Node> stream() {
+        return StreamSupport.stream(new NodeSpliterator(this), false);
+    }
+
+    /**
+     * Lazy version of {@link #searchTitle(String)}. Non-case-sensitive.
+     * @param term String to be searched for
+     * @return stream of matching Nodes in structure order
+     */
+    public Stream<Node> streamTitle(String term) {
+        return streamTitle(new SearchTerm(term), () -> false);
+    }
+
+    /**
+     * Lazy version of {@link #searchTitle(SearchTerm)} that can be cancelled, e.g. from another thread. The flag is
+     * checked before every visited Node, so a cancelled search stops even if it's not finding anything.
+     * @param term precompiled search term
+     * @param cancelled returns true once the search should stop
+     * @return stream of matching Nodes in structure order
+     */
+    public Stream<Node> streamTitle(SearchTerm term, BooleanSupplier cancelled) {
+        return stream().takeWhile(node -> !cancelled.getAsBoolean()).filter(node -> node.matchesTitle(term));
+    }
+
+    /**
+     * Lazy version of {@link #searchContent(String)}. Non-case-sensitive.
+     * @param term search term to be compared against snippet contents
+     * @return stream of matching Snippets in structure order
+     */
+    public Stream<Node> streamContent(String term) {
+        return streamContent(new SearchTerm(term), () -> false);
+    }
+
+    /**
+     * Lazy version of {@link #searchContent(SearchTerm)} that can be cancelled, e.g. from another thread.
+     * @see #streamTitle(SearchTerm, BooleanSupplier)
+     * @param term precompiled search term
+     * @param cancelled returns true once the search should stop
+     * @return stream of matching Snippets in structure order
+     */
+    public Stream<Node> streamContent(SearchTerm term, BooleanSupplier cancelled) {
+        return stream().takeWhile(node -> !cancelled.getAsBoolean()).filter(node -> node.matchesContent(term));
+    }
+    //endregion
+
     /**
      * Implementation in Folder and Snippet
      * @see pl.gda.pg.eti.lsea.lab.Folder#clone
@@ -136,6 +547,53 @@ public abstract class Node implements Cloneable, Comparable<Node>, Serializable
      */
     @Override
     public abstract Object clone() throws CloneNotSupportedException;
-    public abstract ArrayList<Node> searchTitle(String term);
-    public abstract ArrayList<Node> searchContent(String term);
+
+    /**
+     * Checks if the title of this Node alone contains the term. Non-case-sensitive, allocates nothing.
+     * @param term precompiled search term
+     * @return true if the title matches
+     */
+    public boolean matchesTitle(SearchTerm term) {
+        if (fold_cache == FoldCache.NONE) {
+            if (folded_title != null)
+                folded_title = null;
+            return term.matches(title);
+        }
+        return term.matchesFolded(getFoldedTitle());
+    }
+
+    /**
+     * Checks if the contents of this Node alone contain the term. Only Snippets have contents.
+     * @param term precompiled search term
+     * @return true if the contents match
+     */
+    public boolean matchesContent(SearchTerm term) {
+        return false;
+    }
+
+    /**
+     * Non-case-sensitive search on titles of this Node and all Nodes below it.
+     * @param term String to be searched for
+     * @return ArrayList of matching Nodes
+     */
+    public ArrayList<Node> searchTitle(String term) {
+        return searchTitle(new SearchTerm(term));
+    }
+
+    /**
+     * Non-case-sensitive search on contents of this Node and all Nodes below it.
+     * @param term search term to be compared against snippet contents
+     * @return ArrayList of matching Snippets
+     */
+    public ArrayList<Node> searchContent(String term) {
+        return searchContent(new SearchTerm(term));
+    }
+
+    /**
+     * Implementation in Folder and Snippet. The term is compiled once and passed down the structure as is.
+     * @see pl.gda.pg.eti.lsea.lab.Folder#searchTitle(SearchTerm)
+     * @see pl.gda.pg.eti.lsea.lab.Snippet#searchTitle(SearchTerm)
+     */
+    public abstract ArrayList<Node> searchTitle(SearchTerm term);
+    public abstract ArrayList<Node> searchContent(SearchTerm term);
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.util.EventObject;
+
+/**
+ * Event describing a change of a single property of a {@link Node}. Sent to every {@link NodeListener} registered on
+ * the changed Node or on any of its ancestors.
+ *
+ * @see Node#addNodeListener(NodeListener)
+ */
+public class NodeEvent extends EventObject {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Property of a Node that was changed.
+     */
+    public enum Property {
+        TITLE, CONTENT, LANG, CREATED, EDITED
+    }
+
+    //region Fields
+    private final Property property; // changed property
+    private final transient Object old_value; // value of the property before the change
+    //endregion
+
+    //region Constructors
+    public NodeEvent(Node source, Property property, Object old_value) {
+        super(source);
+        this.property = property;
+        this.old_value = old_value;
+    }
+    //endregion
+
+    //region Getters
+    public Node getNode() {
+        return (Node) getSource();
+    }
+    public Property getProperty() {
+        return property;
+    }
+    public Object getOldValue() {
+        return old_value;
+    }
+    //endregion
+}
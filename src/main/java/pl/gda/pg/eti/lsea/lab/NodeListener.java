@@ -0,0 +1,18 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.util.EventListener;
+
+/**
+ * Listener notified whenever a {@link Node} - or any Node below it in the structure - changes one of its properties.
+ * Used by {@link FolderTree} to keep its search indexes up to date with edits that don't go through the TreeModel.
+ *
+ * @see NodeEvent
+ */
+public interface NodeListener extends EventListener {
+
+    /**
+     * Invoked after a property of a Node has been changed.
+     * @param e event describing the change
+     */
+    void nodeChanged(NodeEvent e);
+}
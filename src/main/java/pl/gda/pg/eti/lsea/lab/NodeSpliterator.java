@@ -0,0 +1,109 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable, ordered spliterator over a Node and every Node below it, in depth-first (pre-order) order. Uses an
+ * explicit stack, so the depth of the structure isn't limited by the call stack.
+ *
+ * Splits hand out a prefix of the remaining structure - whole subtrees, balanced by {@link Node#getSubtreeSize()} -
+ * so parallel streams keep structure order. A single remaining Folder is split into itself and its children. The
+ * structure must not be modified while it's traversed.
+ */
+public class NodeSpliterator implements Spliterator<Node> {
+
+    private Node head; // Node returned alone, before the subtrees, null if none
+    private final Deque<Iterator<Node>> stack; // iterators over children of the subtree being traversed
+    private List<Node> subtrees; // list holding the subtrees not started yet
+    private int index; // first subtree not started yet
+    private int fence; // end of the subtrees, exclusive
+
+    public NodeSpliterator(Node root) {
+        this(null, new ArrayDeque<>(), List.of(root), 0, 1);
+    }
+
+    private NodeSpliterator(Node head, Deque<Iterator<Node>> stack, List<Node> subtrees, int index, int fence) {
+        this.head = head;
+        this.stack = stack;
+        this.subtrees = subtrees;
+        this.index = index;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Node> action) {
+        Node next = head;
+        head = null;
+        while (next == null) {
+            Iterator<Node> top = stack.peek();
+            if (top != null) {
+                if (top.hasNext())
+                    next = top.next();
+                else
+                    stack.pop();
+            } else if (index < fence) {
+                next = subtrees.get(index++);
+            } else {
+                return false;
+            }
+            if (next instanceof Folder)
+                stack.push(((Folder) next).getChildren().iterator());
+        }
+        action.accept(next);
+        return true;
+    }
+
+    /**
+     * Splits off the Nodes to be traversed first - the one being traversed, and the subtrees holding about half of
+     * the rest.
+     * @return spliterator over a prefix of the remaining Nodes, null if they can't be split
+     */
+    @Override
+    public Spliterator<Node> trySplit() {
+        if (head == null && stack.isEmpty() && fence - index == 1 && subtrees.get(index) instanceof Folder) {
+            // a single Folder left - split it into itself and its children
+            Folder folder = (Folder) subtrees.get(index);
+            head = folder;
+            subtrees = folder.getChildren();
+            index = 0;
+            fence = subtrees.size();
+        }
+        if (fence - index < 2)
+            return null;
+
+        long total = 0;
+        for (int i = index; i < fence; i++)
+            total += subtrees.get(i).getSubtreeSize();
+        int mid = index + 1;
+        long left = subtrees.get(index).getSubtreeSize();
+        while (mid < fence - 1 && left + subtrees.get(mid).getSubtreeSize() <= total / 2)
+            left += subtrees.get(mid++).getSubtreeSize();
+
+        NodeSpliterator prefix = new NodeSpliterator(head, new ArrayDeque<>(stack), subtrees, index, mid);
+        head = null;
+        stack.clear();
+        index = mid;
+        return prefix;
+    }
+
+    /**
+     * @return number of Nodes in the subtrees not started yet, plus the head
+     */
+    @Override
+    public long estimateSize() {
+        long size = (head != null) ? 1 : 0;
+        for (int i = index; i < fence; i++)
+            size += subtrees.get(i).getSubtreeSize();
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
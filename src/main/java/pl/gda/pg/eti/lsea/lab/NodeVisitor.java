@@ -0,0 +1,37 @@
+package pl.gda.pg.eti.lsea.lab;
+
+/**
+ * Visitor of a structure walked with {@link Node#walk(NodeVisitor)}. Every Node is entered before the Nodes below it
+ * (pre-order) and left after them (post-order). Both callbacks get the depth of the Node relative to the Node the
+ * walk started at.
+ */
+public interface NodeVisitor {
+
+    /**
+     * Tells the walk how to go on after a Node has been entered.
+     */
+    enum Control {
+        CONTINUE, // visit the Nodes below as well
+        SKIP_CHILDREN, // don't visit the Nodes below, the Node is left right away
+        STOP // end the walk, nothing else is entered or left
+    }
+
+    /**
+     * Invoked before the Nodes below the Node are visited. Changes to the children of the Node, e.g. sorting them,
+     * are seen by the walk.
+     * @param node visited Node
+     * @param depth 0 for the Node the walk started at
+     * @return how to go on
+     */
+    default Control enter(Node node, int depth) {
+        return Control.CONTINUE;
+    }
+
+    /**
+     * Invoked after the Nodes below the Node have been visited, or skipped.
+     * @param node visited Node
+     * @param depth 0 for the Node the walk started at
+     */
+    default void leave(Node node, int depth) {
+    }
+}
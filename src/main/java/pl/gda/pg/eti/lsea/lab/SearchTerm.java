@@ -0,0 +1,199 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Precompiled, non-case-sensitive search term. The term is case-folded once, when the object is created, and texts
+ * are matched in place with the Boyer-Moore-Horspool algorithm, folding one character at a time - matching allocates
+ * nothing, no matter how many Nodes are searched.
+ *
+ * Matching gives the same results as {@code text.toLowerCase().contains(term.toLowerCase())}. Folding is done per
+ * character with {@link Character#toLowerCase(char)}, which is the same thing for almost every text. The exceptions
+ * are texts with a capital sigma (lowercased depending on its context), a capital I with a dot above (lowercased to
+ * two chars) or supplementary characters, and every text in locales lowercasing some letters their own way
+ * (Turkish, Azeri, Lithuanian). Those are folded with {@link String#toLowerCase()} instead, when the term could be
+ * affected by it.
+ */
+public final class SearchTerm {
+
+    /**
+     * Lowercase form of every char, looked up instead of calling {@link Character#toLowerCase(char)} in the hot loop.
+     */
+    private static final char[] FOLD = new char[Character.MAX_VALUE + 1];
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++)
+            FOLD[c] = Character.toLowerCase((char) c);
+    }
+
+    //region Fields
+    private final String term; // term as typed by the user
+    private final char[] pattern; // case-folded term
+    private final String folded; // case-folded term as a String
+    private final int[] shift; // Horspool shift by low byte of folded char, smallest shift for colliding chars
+    private final boolean context_sensitive; // true if folding texts per char may not find the same matches
+    //endregion
+
+    //region Constructors
+    public SearchTerm(String term) {
+        this.term = term;
+        this.folded = fold(term);
+        this.pattern = folded.toCharArray();
+        // only these chars can come out of the special cases, other terms never match across them
+        boolean sensitive = false;
+        for (char c : pattern)
+            sensitive |= c == 'i' || c == '\u0307' || c == '\u03C3' || c == '\u03C2' || Character.isSurrogate(c);
+        this.context_sensitive = sensitive;
+
+        this.shift = new int[256];
+        Arrays.fill(shift, Math.max(1, pattern.length));
+        for (int i = 0; i < pattern.length - 1; i++)
+            shift[pattern[i] & 0xFF] = pattern.length - 1 - i;
+    }
+    //endregion
+
+    //region Getters
+    public String getTerm() {
+        return term;
+    }
+    public int length() {
+        return pattern.length;
+    }
+    public boolean isEmpty() {
+        return pattern.length == 0;
+    }
+
+    /**
+     * @return case-folded term
+     */
+    public String getFolded() {
+        return folded;
+    }
+    //endregion
+
+    /**
+     * Checks if the text contains the term, ignoring case.
+     * @param text text to search in
+     * @return true if the term was found
+     */
+    public boolean matches(CharSequence text) {
+        if ((context_sensitive || foldsByLocale()) && !foldsPerChar(text))
+            return fold(text.toString()).contains(folded);
+        return indexIn(text, 0) >= 0;
+    }
+
+    /**
+     * Checks if an already folded text contains the term. Skips folding altogether, so it's faster than
+     * {@link #matches(CharSequence)} when the folded text is cached.
+     * @param folded_text text folded with {@link #fold(String)}
+     * @return true if the term was found
+     */
+    public boolean matchesFolded(String folded_text) {
+        return folded_text.contains(folded);
+    }
+
+    /**
+     * Finds the first occurrence of the term in the text, folding the text per char.
+     * @param text text to search in
+     * @param from index to start searching from
+     * @return index of the first occurrence at or after from, -1 if there is none
+     */
+    private int indexIn(CharSequence text, int from) {
+        int m = pattern.length;
+        int n = text.length();
+        if (m == 0)
+            return Math.min(Math.max(from, 0), n);
+
+        if (m == 1) {
+            char p = pattern[0];
+            for (int i = Math.max(from, 0); i < n; i++)
+                if (FOLD[text.charAt(i)] == p)
+                    return i;
+            return -1;
+        }
+
+        int last = m - 1;
+        for (int i = Math.max(from, 0); i <= n - m; ) {
+            char tail = FOLD[text.charAt(i + last)];
+            if (tail == pattern[last]) {
+                int j = last - 1;
+                while (j >= 0 && FOLD[text.charAt(i + j)] == pattern[j])
+                    j--;
+                if (j < 0)
+                    return i;
+            }
+            i += shift[tail & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Case-folds a single character the way texts are folded one char at a time. The same as
+     * {@link #fold(String)} for every char of texts that {@link #foldsPerChar(CharSequence)} accepts.
+     * @param c character
+     * @return lowercase character
+     */
+    public static char fold(char c) {
+        return FOLD[c];
+    }
+
+    /**
+     * Case-folds a String the same way search terms and texts are folded - the same result as
+     * {@link String#toLowerCase()}, folded per char whenever that gives the same result.
+     * @param text text to fold
+     * @return lowercase text, the same instance if nothing had to be folded
+     */
+    public static String fold(String text) {
+        if (foldsByLocale())
+            return text.toLowerCase();
+        // texts that are already folded are returned as they are, not copied
+        int i = 0;
+        while (i < text.length() && FOLD[text.charAt(i)] == text.charAt(i) && !Character.isSurrogate(text.charAt(i)))
+            i++;
+        if (i == text.length())
+            return text;
+
+        char[] out = text.toCharArray();
+        for (; i < out.length; i++) {
+            if (!foldsPerChar(out[i]))
+                return text.toLowerCase();
+            out[i] = FOLD[out[i]];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Checks if folding the text one char at a time, with {@link #fold(char)}, gives the same result as
+     * {@link #fold(String)}.
+     * @param text text to check
+     * @return false if the text has to be folded as a whole
+     */
+    public static boolean foldsPerChar(CharSequence text) {
+        if (foldsByLocale())
+            return false;
+        for (int i = 0; i < text.length(); i++)
+            if (!foldsPerChar(text.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return false for chars lowercased depending on their context, to more than one char, or as a pair
+     */
+    private static boolean foldsPerChar(char c) {
+        return c != '\u03A3' && c != '\u0130' && !Character.isSurrogate(c);
+    }
+
+    /**
+     * @return true if the default locale lowercases some letters its own way, e.g. the Turkish dotless i
+     */
+    static boolean foldsByLocale() {
+        String language = Locale.getDefault().getLanguage();
+        return language.equals("tr") || language.equals("az") || language.equals("lt");
+    }
+
+    @Override
+    public String toString() {
+        return term;
+    }
+}
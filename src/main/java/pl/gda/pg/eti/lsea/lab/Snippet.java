@@ -1,45 +1,182 @@
 package pl.gda.pg.eti.lsea.lab;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.Cleaner;
 import java.util.ArrayList;
 import java.util.Date;
 
 /**
- * Node within the file structure containing a String - snippet of code.
+ * Node within the file structure containing a String - snippet of code. Contents are kept in the shared
+ * {@link ContentStore}, so Snippets with identical contents hold the same String - or, with
+ * {@link ContentStore.Storage#MAPPED} storage, the same offset in a memory-mapped file.
  * @see Node
  * @author Tomasz Wierciński
  */
 public class Snippet extends Node{
-    private String snippet;
+
+    /**
+     * Reference to the stored contents, given back to the store once the Snippet is garbage collected. Doesn't
+     * refer to the Snippet itself, or it would never be collected.
+     */
+    private static final class StoreReference implements Runnable {
+        volatile String body = null; // stored contents currently held, null if mapped
+        volatile long offset = -1; // offset of the mapped contents currently held, -1 if on the heap
+
+        @Override
+        public void run() {
+            if (offset >= 0)
+                ContentStore.getShared().releaseMapped(offset);
+            else
+                ContentStore.getShared().release(body);
+        }
+    }
+
+    private static final Cleaner cleaner = Cleaner.create(); // releases contents of collected Snippets
+
+    private String snippet; // contents, null if they're kept in the mapped file
+    private transient long offset = -1; // offset of the contents in the mapped file, -1 if they're on the heap
+    private transient int length = 0; // length of the contents in the mapped file, in bytes
+    private transient StoreReference stored; // reference to the contents in the ContentStore
     private String lang;
+    private transient String folded_snippet = null; // cached case-folded contents, null if not computed
+    private transient String folded_lang = null; // cached case-folded language, null if not computed
 
     //region Constructors
     public Snippet(String title, String lang, String snippet) {
         super(title);
         this.lang = lang;
-        this.snippet = snippet;
+        store(snippet);
     }
     public Snippet(String title, String lang) {
-        super(title);
-        this.lang = lang;
-        this.snippet = "";
+        this(title, lang, "");
     }
     //endregion
 
+    /**
+     * Takes a reference to the contents in the ContentStore and makes sure it's given back once this Snippet is
+     * collected.
+     */
+    private void store(String body) {
+        stored = new StoreReference();
+        cleaner.register(this, stored);
+        hold(body);
+    }
+
+    /**
+     * Takes a reference to the contents, kept wherever the ContentStore currently stores new bodies (empty ones
+     * always on the heap). The reference to the previous contents has to be given back by the caller.
+     */
+    private void hold(String body) {
+        ContentStore store = ContentStore.getShared();
+        if (body != null && !body.isEmpty() && store.getStorage() == ContentStore.Storage.MAPPED) {
+            hold(store.acquireMapped(body), null);
+        } else {
+            hold(-1, store.acquire(body));
+        }
+    }
+
+    private void hold(long offset, String body) {
+        this.snippet = body;
+        this.offset = offset;
+        this.length = (offset >= 0) ? ContentStore.getShared().getMappedLength(offset) : 0;
+        stored.body = body;
+        stored.offset = offset;
+    }
+
+    /**
+     * Gives back a reference taken with {@link #hold(String)}.
+     */
+    private static void release(long offset, String body) {
+        if (offset >= 0)
+            ContentStore.getShared().releaseMapped(offset);
+        else
+            ContentStore.getShared().release(body);
+    }
+
+    /**
+     * Writes the contents themselves, mapped ones included.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("snippet", get());
+        fields.put("lang", lang);
+        out.writeFields();
+    }
+
+    /**
+     * Deduplicates deserialized contents. Identical contents are written once per stream, so this hashes every
+     * distinct body only once.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        store(snippet);
+    }
+
     //region Getters
     public String get() {
-        return snippet;
+        return (offset >= 0) ? ContentStore.getShared().readMapped(offset, length) : snippet;
+    }
+
+    /**
+     * @return true if the contents are kept in the mapped file rather than on the heap
+     */
+    public boolean isMapped() {
+        return offset >= 0;
     }
     public String getLang() { return lang; }
+
+    /**
+     * Returns the case-folded contents. Only cached in {@link FoldCache#ALL} mode, and never for mapped contents.
+     * @return contents folded with {@link SearchTerm#fold(String)}
+     */
+    public String getFoldedContent() {
+        String folded = folded_snippet;
+        if (folded == null) {
+            folded = SearchTerm.fold(get());
+            if (getFoldCache() == FoldCache.ALL && offset < 0)
+                folded_snippet = folded;
+        }
+        return folded;
+    }
+
+    /**
+     * Returns the case-folded language. Cached unless caching is off.
+     * @return language folded with {@link SearchTerm#fold(String)}
+     */
+    public String getFoldedLang() {
+        String folded = folded_lang;
+        if (folded == null) {
+            folded = SearchTerm.fold(lang);
+            if (getFoldCache() != FoldCache.NONE)
+                folded_lang = folded;
+        }
+        return folded;
+    }
     //endregion
     
     //region Setters
     public void set(String snippet) {
-        this.snippet = snippet;
+        if (parent instanceof Folder)
+            Folder.detachCopies((Folder) parent);
+        String old_snippet = get();
+        long old_offset = this.offset;
+        String old_body = this.snippet;
+        hold(snippet);
+        release(old_offset, old_body);
+        this.folded_snippet = null;
         this.edited = new Date();
+        fireNodeChanged(NodeEvent.Property.CONTENT, old_snippet);
     }
     public void setLang(String lang) {
+        if (parent instanceof Folder)
+            Folder.detachCopies((Folder) parent);
+        String old_lang = this.lang;
         this.lang = lang;
+        this.folded_lang = null;
         this.edited = new Date();
+        fireNodeChanged(NodeEvent.Property.LANG, old_lang);
     }
     //endregion
 
@@ -50,23 +187,27 @@ public class Snippet extends Node{
      */
     @Override
     public Object clone() {
-        Snippet snippet = new Snippet(this.title, this.lang, this.snippet);
+        if (offset < 0)
+            return new Snippet(this.title, this.lang, this.snippet);
+        // mapped contents are shared by offset, without decoding them
+        Snippet snippet = new Snippet(this.title, this.lang, null);
+        snippet.hold(ContentStore.getShared().retainMapped(offset), null);
         return snippet;
     }
     
     /**
      * Checks if the title of the Snippet contains the term. Non-case-sensitive.
      * Returns the Snippet if it's a match.
-     * @see Node#searchTitle(java.lang.String)
-     * @see Folder#searchTitle(java.lang.String)
-     * @param term String to be searched for
+     * @see Node#searchTitle(SearchTerm)
+     * @see Folder#searchTitle(SearchTerm)
+     * @param term precompiled search term
      * @return ArrayList of Nodes, empty or with Snippet
      */
     @Override
-    public ArrayList<Node> searchTitle(String term) {
+    public ArrayList<Node> searchTitle(SearchTerm term) {
         ArrayList<Node> found = new ArrayList<>();
 
-        if (title.toLowerCase().contains(term.toLowerCase())) {
+        if (matchesTitle(term)) {
             found.add(this);
         }
 
@@ -75,22 +216,49 @@ public class Snippet extends Node{
 
     /**
      * Non-case-sensitive search on contents of Snippet. 
-     * @see Node#searchContent(java.lang.String) 
-     * @see Folder#searchContent(java.lang.String) 
-     * @param term search term to be compared against snippet
+     * @see Node#searchContent(SearchTerm) 
+     * @see Folder#searchContent(SearchTerm) 
+     * @param term precompiled search term
      * @return ArrayList of Nodes, empty or with Snippet
      */
     @Override
-    public ArrayList<Node> searchContent(String term) {
+    public ArrayList<Node> searchContent(SearchTerm term) {
         ArrayList<Node> found = new ArrayList<>();
 
-        if (snippet.toLowerCase().contains(term.toLowerCase())) {
+        if (matchesContent(term)) {
             found.add(this);
         }
 
         return found;
     }
 
+    /**
+     * {@inheritDoc}
+     * @param term precompiled search term
+     * @return true if the snippet contains the term
+     */
+    @Override
+    public boolean matchesContent(SearchTerm term) {
+        if (offset >= 0)
+            return ContentStore.getShared().containsMapped(offset, length, term);
+        if (getFoldCache() != FoldCache.ALL) {
+            if (folded_snippet != null)
+                folded_snippet = null;
+            return term.matches(snippet);
+        }
+        return term.matchesFolded(getFoldedContent());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearFoldCache() {
+        super.clearFoldCache();
+        folded_snippet = null;
+        folded_lang = null;
+    }
+
     @Override
     public String toString() {
         return title + "." + lang;
@@ -0,0 +1,29 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import javax.swing.event.TreeModelEvent;
+
+/**
+ * {@link TreeModelEvent} sent by {@link FolderTree} when a property of a Node within the tree changes. Carries the
+ * changed property, so listeners such as {@link pl.gda.pg.eti.lsea.lab.search.BackgroundIndexer} can skip changes
+ * they don't care about. Other listeners see a plain "nodes changed" event.
+ */
+public class TreeNodeChangedEvent extends TreeModelEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final NodeEvent.Property property; // changed property
+
+    //region Constructors
+    public TreeNodeChangedEvent(Object source, Object[] path, int[] child_indices, Object[] children,
+                                NodeEvent.Property property) {
+        super(source, path, child_indices, children);
+        this.property = property;
+    }
+    //endregion
+
+    //region Getters
+    public NodeEvent.Property getProperty() {
+        return property;
+    }
+    //endregion
+}
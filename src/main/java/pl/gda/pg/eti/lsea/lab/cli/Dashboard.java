@@ -2,13 +2,19 @@ package pl.gda.pg.eti.lsea.lab.cli;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
+import pl.gda.pg.eti.lsea.lab.ContentStore;
 import pl.gda.pg.eti.lsea.lab.DateComparator;
 import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.FolderTree;
 import pl.gda.pg.eti.lsea.lab.Node;
 import pl.gda.pg.eti.lsea.lab.Snippet;
+import pl.gda.pg.eti.lsea.lab.search.Bm25Index;
+import pl.gda.pg.eti.lsea.lab.search.FuzzyTitleIndex;
 import pl.gda.pg.eti.lsea.lab.testing.RandomStructure;
 
 /**
@@ -26,14 +32,14 @@ public class Dashboard {
     enum ConsoleAction {
             MOVE("move [id]: Move to the Folder, or view the Snippet.") {
                 @Override
-                Node execute(Node current, String[] args) {
+                Node execute(Node current, String[] args, FolderTree tree_model) {
                     current = ((Folder) current).getChildren().get(Integer.parseInt(args[1]) - 1);
                     return current;
                 }
             },
             UP("up: Move up in the structure.") {
                 @Override
-                Node execute(Node current, String[] args) {
+                Node execute(Node current, String[] args, FolderTree tree_model) {
                     Node parent = current.getParent();
                     if (parent != null) {
                         current = current.getParent();
@@ -43,35 +49,147 @@ public class Dashboard {
             },
             DEL("del [id]: Delete an element in structure.") {
                 @Override
-                Node execute(Node current, String[] args) {
-                    ((Folder) current).removeChild(Integer.parseInt(args[1]) - 1);
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    Node selected = ((Folder) current).getChildren().get(Integer.parseInt(args[1]) - 1);
+                    tree_model.removeChild(selected, (Folder) current);
                     return current;
                 }
             },
             COPY("copy [id]: Copy an element in structure.") {
                 @Override
-                Node execute(Node current, String[] args) throws CloneNotSupportedException  {
+                Node execute(Node current, String[] args, FolderTree tree_model) throws CloneNotSupportedException  {
                     Node selected = ((Folder)current).getChildren().get(Integer.parseInt(args[1]) - 1);
                     // Deep cloning usage.
                     Node selected_copy = (Node) selected.clone();
-                    selected_copy.setTitle(selected.getTitle() + "_copy");
-                    ((Folder) current).addChild(selected_copy);
+                    // Rename and insert as one batch, reported once the copy is in place.
+                    tree_model.batch(changes -> {
+                        selected_copy.setTitle(selected.getTitle() + "_copy");
+                        changes.insertNodeInto(selected_copy, (Folder) current);
+                    });
                     return current;
                 }
             },
             SORT("sort: Sort elements lexicographically.") {
                 @Override
-                Node execute(Node current, String[] argd) {
+                Node execute(Node current, String[] argd, FolderTree tree_model) {
                     // Comparable implementation usage
-                    ((Folder) current).sort();
+                    tree_model.sortChildren((Folder) current);
                     return current;
                 }
             },
             SORTDATE("sortDate: Sort elements based on date of creation.") {
                 @Override
-                Node execute(Node current, String[] args) {
+                Node execute(Node current, String[] args, FolderTree tree_model) {
                     // Comparator implementation usage
-                    ((Folder) current).sort(new DateComparator());
+                    tree_model.sortChildren((Folder) current, new DateComparator());
+                    return current;
+                }
+            },
+            FIND("find [term]: List the first " + MAX_SHOWN + " elements with the term in title.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    // Lazy search - stops once enough matches are found.
+                    String term = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+                    current.streamTitle(term).limit(MAX_SHOWN)
+                            .forEach(found -> System.out.println("|- " + found.getPath()));
+                    return current;
+                }
+            },
+            FUZZY("fuzzy [term] [distance]: List elements with titles similar to the term, closest first.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    // Indexed fuzzy search, distance defaults to 2 edits.
+                    try {
+                        int distance = (args.length > 2) ? Integer.parseInt(args[2]) : 2;
+                        List<FuzzyTitleIndex.Match> found = tree_model.searchTitleFuzzyRanked(args[1], distance);
+                        for (FuzzyTitleIndex.Match match : found.subList(0, Math.min(MAX_SHOWN, found.size())))
+                            System.out.println("|- " + match.getNode().getPath() + " (" + match.getDistance() + ")");
+                    } catch (IllegalArgumentException ex) {
+                        System.out.println("Invalid distance: " + ex.getMessage());
+                    }
+                    return current;
+                }
+            },
+            LANGS("langs: Show number of snippets in every language.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    // Counts are kept by the language index, nothing is traversed.
+                    tree_model.getLanguageCounts().forEach((lang, count) ->
+                            System.out.println("|- " + (lang.isEmpty() ? "(none)" : lang) + ": " + count));
+                    return current;
+                }
+            },
+            FINDLANG("findlang [lang] [term]: List snippets in the language with the term in their title.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    String term = (args.length > 2) ? args[2] : "";
+                    List<Node> found = tree_model.searchTitle(term, args[1]);
+                    for (Node match : found.subList(0, Math.min(MAX_SHOWN, found.size())))
+                        System.out.println("|- " + match.getPath());
+                    return current;
+                }
+            },
+            RECENT("recent [count]: List most recently edited elements, 10 by default.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    int count = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+                    for (Node match : tree_model.getRecentlyEdited(Math.min(count, MAX_SHOWN)))
+                        System.out.println("|- " + match.getPath() + " (" + match.getDateEdited() + ")");
+                    return current;
+                }
+            },
+            EDITED("edited [hours]: List elements edited within the last hours, 24 by default.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    long hours = (args.length > 1) ? Long.parseLong(args[1]) : 24;
+                    Date since = new Date(System.currentTimeMillis() - hours * 3_600_000L);
+                    List<Node> found = tree_model.searchEdited(since, null);
+                    for (Node match : found.subList(0, Math.min(MAX_SHOWN, found.size())))
+                        System.out.println("|- " + match.getPath() + " (" + match.getDateEdited() + ")");
+                    return current;
+                }
+            },
+            RANK("rank [words]: List snippets best matching the words, most relevant first.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    String query = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+                    for (Bm25Index.Match match : tree_model.searchRanked(query, MAX_SHOWN))
+                        System.out.println("|- " + match);
+                    return current;
+                }
+            },
+            QUERY("query [query]: List elements matching all clauses, e.g. title:cube lang:java edited:>2026-01-01") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    String query = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+                    try {
+                        List<Node> found = tree_model.query(query);
+                        for (Node match : found.subList(0, Math.min(MAX_SHOWN, found.size())))
+                            System.out.println("|- " + match.getPath());
+                        System.out.println("Found " + found.size() + " elements.");
+                    } catch (IllegalArgumentException ex) {
+                        System.out.println(ex.getMessage());
+                    }
+                    return current;
+                }
+            },
+            EXPLAIN("explain [query]: Show how a query would be answered and its estimated cost.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    String query = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+                    try {
+                        System.out.println(tree_model.explain(query));
+                    } catch (IllegalArgumentException ex) {
+                        System.out.println(ex.getMessage());
+                    }
+                    return current;
+                }
+            },
+            SHARING("sharing: Show how much of the structure is shared between copies and Snippets.") {
+                @Override
+                Node execute(Node current, String[] args, FolderTree tree_model) {
+                    System.out.println(tree_model.getSharingReport());
+                    System.out.println("Content store: " + ContentStore.getShared().getStatistics());
                     return current;
                 }
             };
@@ -86,14 +204,24 @@ public class Dashboard {
         public String toString() {
             return this.desc;
         }
-        abstract Node execute(Node current, String[] args) throws CloneNotSupportedException;
+        abstract Node execute(Node current, String[] args, FolderTree tree_model) throws CloneNotSupportedException;
     }
 
-    private Folder main_folder = new Folder("Main");  // parent of all Folders and Snippets belonging to user
+    private static final int MAX_SHOWN = 50; // number of search results shown
+    private FolderTree tree_model = new FolderTree();  // holds all Folders and Snippets of the user, keeps indexes
+
+    //region Constructors
+    public Dashboard() {
+        getMain().setTitle("Main");
+    }
+    //endregion
 
     //region Getters
     public Folder getMain() {
-        return main_folder;
+        return (Folder) tree_model.getRoot();
+    }
+    public FolderTree getTreeModel() {
+        return tree_model;
     }
     //endregion
 
@@ -231,7 +359,8 @@ public class Dashboard {
             // Perform selected action.
             String[] response_arr = response.split(" ");
             try {
-                current = ConsoleAction.valueOf(response_arr[0].toUpperCase()).execute(current, response_arr);
+                current = ConsoleAction.valueOf(response_arr[0].toUpperCase()).execute(current, response_arr,
+                        my_dashboard.getTreeModel());
             } catch (NumberFormatException ex) {
                 System.out.println("Second argument must be a valid integer!");
             } catch (IndexOutOfBoundsException ex) {
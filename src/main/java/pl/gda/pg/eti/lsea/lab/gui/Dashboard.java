@@ -7,6 +7,11 @@ import java.awt.event.KeyEvent;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.swing.*;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
@@ -14,8 +19,9 @@ import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 
 import pl.gda.pg.eti.lsea.lab.*;
+import pl.gda.pg.eti.lsea.lab.search.Bm25Index;
+import pl.gda.pg.eti.lsea.lab.search.Query;
 import pl.gda.pg.eti.lsea.lab.testing.FileHogger;
-import pl.gda.pg.eti.lsea.lab.testing.MultithreadedSearch;
 import pl.gda.pg.eti.lsea.lab.testing.RandomStructure;
 
 /**
@@ -37,10 +43,12 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
                     // Create a copy of selected node - deep cloning implementation usage.
                     Node node_copy = (Node) node.clone();
                     Folder node_parent = (Folder) node.getParent();
-                    node_copy.setTitle(node.getTitle() + "_copy");
 
-                    // Insert copy into structure.
-                    tree_model.insertNodeInto(node_copy, node_parent);
+                    // Rename and insert copy into structure as one batch, reported once it's in place.
+                    tree_model.batch(changes -> {
+                        node_copy.setTitle(node.getTitle() + "_copy");
+                        changes.insertNodeInto(node_copy, node_parent);
+                    });
                 } catch (CloneNotSupportedException ex) {
                     System.out.println("EXCEPTION: This ain't Dolly, that's for sure.");
                 }
@@ -109,12 +117,145 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
             @Override
             void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
                 // Search the entire structure by title.
-                // Pop-up asking for search term.
+                // Pop-up asking for search term and search mode.
+                JTextField term_field = new JTextField(20);
+                JComboBox<TitleSearchMode> mode_box = new JComboBox<>(TitleSearchMode.values());
+                JSpinner distance_spinner = new JSpinner(new SpinnerNumberModel(2, 0, 10, 1));
+                JComboBox<String> lang_box = new JComboBox<>();
+                lang_box.addItem(ANY_LANGUAGE);
+                // languages come from the language index, which may still be building - fill them in once known
+                inBackground("Search by title", tree_model::getLanguageCounts,
+                        counts -> counts.keySet().forEach(lang_box::addItem));
+                JPanel panel = new JPanel(new GridLayout(0, 2));
+                panel.add(new JLabel("Search term:"));
+                panel.add(term_field);
+                panel.add(new JLabel("Mode:"));
+                panel.add(mode_box);
+                panel.add(new JLabel("Max. edit distance (similar):"));
+                panel.add(distance_spinner);
+                panel.add(new JLabel("Language:"));
+                panel.add(lang_box);
+
+                int choice = JOptionPane.showConfirmDialog(null, panel, "Search by title",
+                        JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+                String term = term_field.getText();
+                if (choice == JOptionPane.OK_OPTION && !term.isEmpty()) {
+                    TitleSearchMode mode = (TitleSearchMode) mode_box.getSelectedItem();
+                    String lang = (String) lang_box.getSelectedItem();
+                    int distance = (Integer) distance_spinner.getValue();
+                    SearchPanel search_panel = ((Dashboard) SwingUtilities.getWindowAncestor(tree)).getSearchPanel();
+                    String description = mode + " \"" + term + "\"";
+                    if (ANY_LANGUAGE.equals(lang)) {
+                        search_panel.query(description, () -> mode.search(tree_model, term, distance));
+                    } else if (mode == TitleSearchMode.SUBSTRING) {
+                        search_panel.query(description + " in " + lang, () -> tree_model.searchTitle(term, lang));
+                    } else {
+                        search_panel.query(description + " in " + lang, () -> tree_model.filterLanguage(
+                                mode.search(tree_model, term, distance), lang));
+                    }
+                }
+            }
+        }, SEARCH_CONTENT("By content", KeyEvent.VK_O, "Search snippet contents") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                // Indexed search of snippet contents, off the event dispatch thread.
+                String term = JOptionPane.showInputDialog(null, "Type search term:");
+                if (term != null && !term.isEmpty())
+                    ((Dashboard) SwingUtilities.getWindowAncestor(tree)).getSearchPanel().query(
+                            "Content \"" + term + "\"", () -> tree_model.searchContent(term));
+            }
+        }, QUERY("Query...", KeyEvent.VK_Q, "Search with a compound query") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                // Pop-up asking for the query, the results go to the search panel.
+                String query = JOptionPane.showInputDialog(null,
+                        "Query, e.g. title:cube lang:java edited:>2026-01-01 content:\"public void\"");
+                if (query != null && !query.isBlank()) {
+                    try {
+                        Query.parse(query);
+                    } catch (IllegalArgumentException ex) {
+                        JOptionPane.showMessageDialog(null, ex.getMessage(), "Query", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    ((Dashboard) SwingUtilities.getWindowAncestor(tree)).getSearchPanel().query(query,
+                            () -> tree_model.query(query));
+                }
+            }
+        }, EXPLAIN("Explain query...", KeyEvent.VK_X, "Show how a query would be answered") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                String query = JOptionPane.showInputDialog(null, "Query to explain:");
+                if (query != null && !query.isBlank()) {
+                    try {
+                        Query.parse(query);
+                    } catch (IllegalArgumentException ex) {
+                        JOptionPane.showMessageDialog(null, ex.getMessage(), "Query", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    // planning may have to wait for the indexes
+                    inBackground("Query plan", () -> tree_model.explain(query), explained -> {
+                        JTextArea plan = new JTextArea(explained);
+                        plan.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                        plan.setEditable(false);
+                        JOptionPane.showMessageDialog(null, plan, "Query plan", JOptionPane.INFORMATION_MESSAGE);
+                    });
+                }
+            }
+        }, BEST_MATCHES("Best matches...", KeyEvent.VK_B, "Snippets most relevant to the words, best first") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                // Ranked full-text search, top results only.
+                String words = JOptionPane.showInputDialog(null, "Type search words:");
+                if (words != null && !words.isBlank()) {
+                    ((Dashboard) SwingUtilities.getWindowAncestor(tree)).getSearchPanel().query(
+                            "Best matches for \"" + words + "\"", () -> {
+                                List<Node> found = new ArrayList<>();
+                                for (Bm25Index.Match match : tree_model.searchRanked(words, BEST_MATCHES_SHOWN))
+                                    found.add(match.getNode());
+                                return found;
+                            });
+                }
+            }
+        }, FIND_FIRST("First by title", KeyEvent.VK_I, "Select first node with term in title") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                // Lazy search - stops at the first match, starting after the hidden root.
                 String term = JOptionPane.showInputDialog(this, "Type search term:");
                 if (term != null && !term.isEmpty()) {
-                    // example multithreading usage / implementation - for more information inquire within MultithreadedSearch.java
-                    MultithreadedSearch search = new MultithreadedSearch(5, term, ((Folder)tree_model.getRoot()).getAllChildren());
-                    search.search();
+                    inBackground("First by title", () -> tree_model.findFirstTitle(term),
+                            first -> first.ifPresentOrElse(found -> {
+                                TreePath path = found.getPathArray();
+                                tree.setSelectionPath(path);
+                                tree.scrollPathToVisible(path);
+                            }, () -> System.out.println("INFO: Found 0 elements.")));
+                }
+            }
+        }, LANGUAGES("Languages", KeyEvent.VK_L, "Show number of snippets in every language") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                // Counts are kept by the language index, nothing is traversed.
+                inBackground("Languages", tree_model::getLanguageCounts, lang_counts -> {
+                    StringBuilder counts = new StringBuilder();
+                    lang_counts.forEach((lang, count) ->
+                            counts.append(lang.isEmpty() ? "(none)" : lang).append(": ").append(count).append("\n"));
+                    System.out.println("INFO: Languages: " + lang_counts);
+                    JOptionPane.showMessageDialog(null, (counts.length() > 0) ? counts.toString() : "No snippets.",
+                            "Languages", JOptionPane.INFORMATION_MESSAGE);
+                });
+            }
+        }, RECENT("Recently edited", KeyEvent.VK_R, "List most recently edited nodes") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                // Pop-up asking for number of listed nodes, served by the date index.
+                String count = JOptionPane.showInputDialog(null, "Number of nodes:", 10);
+                if (count != null && !count.isEmpty()) {
+                    try {
+                        int limit = Integer.parseInt(count.trim());
+                        ((Dashboard) SwingUtilities.getWindowAncestor(tree)).getSearchPanel().query(
+                                limit + " recently edited", () -> tree_model.getRecentlyEdited(limit));
+                    } catch (NumberFormatException ex) {
+                        System.out.println("INFO: Not a number: " + count);
+                    }
                 }
             }
         }, EXPORT_SELECTED("Export selected...", KeyEvent.VK_S, "Export selected") {
@@ -138,15 +279,52 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
                 ImportExportManager file_chooser = new ImportExportManager();
                 Node imported_node = file_chooser.import_node();
                 if (imported_node != null) {
+                    Folder target;
                     if (node == null) // if no node selected, insert into root folder
-                        tree_model.insertNodeInto(imported_node, (Folder) tree_model.getRoot());
+                        target = (Folder) tree_model.getRoot();
                     else if (node instanceof  Snippet) {  // if Snippet selected, insert into parent
-                        tree_model.insertNodeInto(imported_node, (Folder) node.getParent());
-                    } else if (node instanceof  Folder) {
-                        tree_model.insertNodeInto(imported_node, (Folder) node);
+                        target = (Folder) node.getParent();
+                    } else {
+                        target = (Folder) node;
                     }
+                    // the imported structure goes in as one batch, with a single event and lock acquisition
+                    tree_model.batch(changes -> changes.insertNodeInto(imported_node, target));
                 }
             }
+        }, SHARING_STATS("Sharing statistics", KeyEvent.VK_H, "Show how much copies and Snippets share") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                // walks the whole structure and reads every body, so it runs in the background
+                inBackground("Sharing", () -> tree_model.getSharingReport() + " "
+                        + ContentStore.getShared().getStatistics(), stats -> {
+                    System.out.println("INFO: Sharing: " + stats);
+                    JOptionPane.showMessageDialog(null, stats.replace(' ', '\n'), "Sharing",
+                            JOptionPane.INFORMATION_MESSAGE);
+                });
+            }
+        }, COMPACT_VIEW("Compact view", KeyEvent.VK_V, "Browse a compact copy of the structure") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                inBackground("Compact view", tree_model::toCompactTree, compact -> {
+                    System.out.println("INFO: Compact view: " + compact.size() + " Nodes, about "
+                            + compact.getFootprint() + " bytes");
+                    JTree compact_tree = new JTree(compact);
+                    compact_tree.setEditable(false);
+                    JFrame frame = new JFrame("Compact view");
+                    frame.add(new JScrollPane(compact_tree));
+                    frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+                    frame.setSize(300, 400);
+                    frame.setVisible(true);
+                });
+            }
+        }, CACHE_STATS("Search cache statistics", KeyEvent.VK_A, "Show search cache statistics") {
+            @Override
+            void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
+                String stats = tree_model.getQueryCacheStatistics().toString();
+                System.out.println("INFO: Search cache: " + stats);
+                JOptionPane.showMessageDialog(null, stats.replace(' ', '\n'), "Search cache",
+                        JOptionPane.INFORMATION_MESSAGE);
+            }
         }, HOG_FILE("Block file...", KeyEvent.VK_B, "Blocks file for 60 seconds.") {
             @Override
             void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree) {
@@ -170,6 +348,9 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
             }
         };
 
+        static final int BEST_MATCHES_SHOWN = 100; // number of results of a ranked search
+        static final String ANY_LANGUAGE = "(any)"; // language filter option that doesn't filter
+
         private final String accessible_desc;
         private final int mnemonic;
         private final String title;
@@ -197,7 +378,69 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
         public String toString() {
             return this.title;
         }
+
         abstract void execute(Node node, FolderTree tree_model, TreePath node_path, JTree tree);
+
+        /**
+         * Runs the work on a {@link SwingWorker} and passes its result to the callback on the EDT, so waiting for
+         * the indexes or the tree lock doesn't freeze the GUI. Failures are shown in a message dialog.
+         */
+        static <T> void inBackground(String title, Supplier<T> work, Consumer<T> on_done) {
+            new SwingWorker<T, Void>() {
+                @Override
+                protected T doInBackground() {
+                    return work.get();
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        on_done.accept(get());
+                    } catch (ExecutionException ex) {
+                        System.out.println("INFO: " + title + " failed: " + ex.getCause());
+                        JOptionPane.showMessageDialog(null, ex.getCause().toString(), title,
+                                JOptionPane.ERROR_MESSAGE);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }.execute();
+        }
+    }
+    
+    /**
+     * Ways of matching titles offered by {@link FileAction#SEARCH_TITLE}. All of them are served by FolderTree's
+     * indexes, with or without a language.
+     */
+    enum TitleSearchMode {
+        SUBSTRING("Contains") {
+            @Override
+            List<Node> search(FolderTree tree_model, String term, int max_distance) {
+                return tree_model.searchTitle(term);
+            }
+        }, PREFIX("Starts with") {
+            @Override
+            List<Node> search(FolderTree tree_model, String term, int max_distance) {
+                return tree_model.searchTitlePrefix(term);
+            }
+        }, FUZZY("Similar to") {
+            @Override
+            List<Node> search(FolderTree tree_model, String term, int max_distance) {
+                return tree_model.searchTitleFuzzy(term, max_distance);
+            }
+        };
+
+        private final String title;
+
+        TitleSearchMode(String title) {
+            this.title = title;
+        }
+
+        @Override
+        public String toString() {
+            return this.title;
+        }
+        abstract List<Node> search(FolderTree tree_model, String term, int max_distance);
     }
     
     private JTree tree; // JTree component - displays the tree
@@ -211,6 +454,7 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
     private JLabel label_title = new JLabel("-"); // title of selected Node
     private JLabel label_date = new JLabel(""); // date of creation of selected Node
     private ImportExportManager file_chooser = new ImportExportManager();
+    private SearchPanel search_panel = new SearchPanel(this::selectNode); // right panel with search results
 
     private static final SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy hh:mm:ss a"); // date format used in dashboard
 
@@ -322,6 +566,41 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
         menu_search_title.addActionListener(this);
         menu_search.add(menu_search_title);
 
+        // Search -> By content
+        JMenuItem menu_search_content = FileAction.SEARCH_CONTENT.getJMenuItem();
+        menu_search_content.addActionListener(this);
+        menu_search.add(menu_search_content);
+
+        // Search -> Best matches
+        JMenuItem menu_search_best = FileAction.BEST_MATCHES.getJMenuItem();
+        menu_search_best.addActionListener(this);
+        menu_search.add(menu_search_best);
+
+        // Search -> Query
+        JMenuItem menu_search_query = FileAction.QUERY.getJMenuItem();
+        menu_search_query.addActionListener(this);
+        menu_search.add(menu_search_query);
+
+        // Search -> Explain query
+        JMenuItem menu_search_explain = FileAction.EXPLAIN.getJMenuItem();
+        menu_search_explain.addActionListener(this);
+        menu_search.add(menu_search_explain);
+
+        // Search -> First by title
+        JMenuItem menu_search_first = FileAction.FIND_FIRST.getJMenuItem();
+        menu_search_first.addActionListener(this);
+        menu_search.add(menu_search_first);
+
+        // Search -> Recently edited
+        JMenuItem menu_search_recent = FileAction.RECENT.getJMenuItem();
+        menu_search_recent.addActionListener(this);
+        menu_search.add(menu_search_recent);
+
+        // Search -> Languages
+        JMenuItem menu_search_languages = FileAction.LANGUAGES.getJMenuItem();
+        menu_search_languages.addActionListener(this);
+        menu_search.add(menu_search_languages);
+
         menu_bar.add(menu_file);
         menu_bar.add(menu_search);
         menu_bar.add(menu_testing);
@@ -330,6 +609,21 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
         JMenuItem menu_testing_hog = FileAction.HOG_FILE.getJMenuItem();
         menu_testing_hog.addActionListener(this);
         menu_testing.add(menu_testing_hog);
+
+        // Testing -> Search cache statistics
+        JMenuItem menu_testing_cache = FileAction.CACHE_STATS.getJMenuItem();
+        menu_testing_cache.addActionListener(this);
+        menu_testing.add(menu_testing_cache);
+
+        // Testing -> Sharing statistics
+        JMenuItem menu_testing_sharing = FileAction.SHARING_STATS.getJMenuItem();
+        menu_testing_sharing.addActionListener(this);
+        menu_testing.add(menu_testing_sharing);
+
+        // Testing -> Compact view
+        JMenuItem menu_testing_compact = FileAction.COMPACT_VIEW.getJMenuItem();
+        menu_testing_compact.addActionListener(this);
+        menu_testing.add(menu_testing_compact);
         // endregion
 
         // Layout
@@ -340,6 +634,8 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
 
         snippet_view.setPreferredSize(new Dimension(380, 400));
         this.add(snippet_view, BorderLayout.CENTER);
+        search_panel.setPreferredSize(new Dimension(260, 400));
+        this.add(search_panel, BorderLayout.LINE_END);
         label_panel.setLayout(new GridLayout(0,2));
         label_panel.add(label_title);
         label_panel.add(label_date);
@@ -356,6 +652,22 @@ public class Dashboard extends JFrame implements TreeSelectionListener, ActionLi
     }
     //endregion
 
+    //region Getters
+    public SearchPanel getSearchPanel() {
+        return search_panel;
+    }
+    //endregion
+
+    /**
+     * Selects the Node in the tree, expanding and scrolling to it. Used to jump to search results.
+     * @param node Node to be selected
+     */
+    public void selectNode(Node node) {
+        TreePath path = node.getPathArray();
+        tree.setSelectionPath(path);
+        tree.scrollPathToVisible(path);
+    }
+
     /**
      * {@inheritDoc} Sets the two labels at the bottom of the GUI to the title and date of creation of selected Node.
      * @param e the event that characterizes the change.
@@ -0,0 +1,157 @@
+package pl.gda.pg.eti.lsea.lab.gui;
+
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.*;
+import pl.gda.pg.eti.lsea.lab.Node;
+
+/**
+ * Results panel of the dashboard. Searches run on a {@link SwingWorker}, so the event dispatch thread stays free -
+ * results are handed to the list in chunks, a progress bar shows how many of them were listed and a running search
+ * can be cancelled. Selecting a result passes it to the dashboard, which jumps to it in the tree.
+ */
+public class SearchPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int PUBLISH_STEP = 1024; // number of results handed to the list at once
+
+    /**
+     * Runs an indexed query, then hands its results to the list a chunk at a time, so a large result doesn't hold up
+     * the event dispatch thread. The query itself can't be interrupted, but cancelling drops the results not listed
+     * yet.
+     */
+    private class QueryWorker extends SwingWorker<Integer, Node> {
+        private final Supplier<List<Node>> query; // indexed search returning all results at once
+
+        QueryWorker(Supplier<List<Node>> query) {
+            this.query = query;
+        }
+
+        @Override
+        protected Integer doInBackground() {
+            List<Node> found = query.get();
+            for (int from = 0; from < found.size() && !isCancelled(); from += PUBLISH_STEP) {
+                int to = Math.min(found.size(), from + PUBLISH_STEP);
+                publish(found.subList(from, to).toArray(new Node[0]));
+                setProgress((int) (100L * to / found.size()));
+            }
+            setProgress(100);
+            return found.size();
+        }
+
+        @Override
+        protected void process(List<Node> chunk) {
+            if (worker == this)
+                for (Node node : chunk)
+                    results.addElement(node);
+        }
+
+        @Override
+        protected void done() {
+            finish(this);
+        }
+    }
+
+    //region Fields
+    private final DefaultListModel<Node> results = new DefaultListModel<>(); // found Nodes, in order of arrival
+    private final JList<Node> result_list = new JList<>(results); // displays found Nodes by path
+    private final JProgressBar progress_bar = new JProgressBar(0, 100); // share of listed results
+    private final JButton cancel_button = new JButton("Cancel"); // cancels the running search
+    private final JLabel status = new JLabel("No search yet."); // description and outcome of the last search
+    private SwingWorker<Integer, Node> worker = null; // running or last search, only touched on the EDT
+    private String description = ""; // description of the running search
+    //endregion
+
+    //region Constructors
+    /**
+     * @param on_select called on the EDT with every result selected by the user
+     */
+    public SearchPanel(Consumer<Node> on_select) {
+        super(new BorderLayout());
+
+        result_list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        result_list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean selected, boolean focused) {
+                return super.getListCellRendererComponent(list, ((Node) value).getPath(), index, selected,
+                        focused);
+            }
+        });
+        result_list.addListSelectionListener(e -> {
+            Node selected = result_list.getSelectedValue();
+            if (!e.getValueIsAdjusting() && selected != null)
+                on_select.accept(selected);
+        });
+
+        cancel_button.setEnabled(false);
+        cancel_button.addActionListener(e -> cancel());
+        progress_bar.setStringPainted(true);
+
+        JPanel controls = new JPanel(new BorderLayout());
+        controls.add(progress_bar, BorderLayout.CENTER);
+        controls.add(cancel_button, BorderLayout.LINE_END);
+        controls.add(status, BorderLayout.PAGE_END);
+
+        this.add(controls, BorderLayout.PAGE_START);
+        this.add(new JScrollPane(result_list), BorderLayout.CENTER);
+    }
+    //endregion
+
+    /**
+     * Starts an indexed query, replacing the running search if there is one. Must be called on the EDT.
+     * @param description what is searched for, shown to the user
+     * @param query search returning all results at once, called on a background thread
+     */
+    public void query(String description, Supplier<List<Node>> query) {
+        start(description, new QueryWorker(query));
+    }
+
+    /**
+     * Cancels the running search. Results found so far stay in the list.
+     */
+    public void cancel() {
+        if (worker != null)
+            worker.cancel(false);
+    }
+
+    private void start(String description, SwingWorker<Integer, Node> new_worker) {
+        cancel();
+        worker = new_worker;
+        this.description = description;
+        results.clear();
+        progress_bar.setValue(0);
+        cancel_button.setEnabled(true);
+        status.setText(description + "...");
+        new_worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName()) && worker == new_worker)
+                progress_bar.setValue((Integer) e.getNewValue());
+        });
+        new_worker.execute();
+    }
+
+    /**
+     * Reports the outcome of a finished search, unless another search replaced it in the meantime.
+     */
+    private void finish(SwingWorker<Integer, Node> finished) {
+        if (worker != finished)
+            return;
+        cancel_button.setEnabled(false);
+        try {
+            status.setText(description + ": found " + finished.get() + ".");
+        } catch (CancellationException ex) {
+            status.setText(description + ": cancelled, found " + results.size() + " so far.");
+        } catch (ExecutionException ex) {
+            status.setText(description + ": failed - " + ex.getCause());
+            System.out.println("INFO: Search failed: " + ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("INFO: " + status.getText());
+    }
+}
@@ -0,0 +1,481 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+import pl.gda.pg.eti.lsea.lab.TreeNodeChangedEvent;
+
+/**
+ * Keeps {@link StructureIndex}es up to date on a background thread. Subscribes to the events of a TreeModel (see
+ * {@link pl.gda.pg.eti.lsea.lab.FolderTree}), queues them and applies them in batches, so a large import returns to
+ * the caller - e.g. the Swing event dispatch thread - as soon as the Nodes are in the tree.
+ *
+ * Within a batch, repeated changes of the same Node are applied once, and Nodes inserted together with one of their
+ * ancestors are indexed along with it. An inserted Folder is indexed as it is when the insert is applied, so Nodes
+ * inserted into it since then are added again by their own inserts - which {@link StructureIndex} requires to be
+ * idempotent. New indexes are built on the worker thread too, in order with the queued changes. If applying a batch
+ * fails, every index is rebuilt from the structure instead of being left out of step with it. If the worker dies of
+ * an Error, e.g. running out of memory, reads fail with an IllegalStateException instead of waiting forever.
+ *
+ * Reads go through {@link #read(Supplier)}, which waits until every change queued so far is applied. Changes to the
+ * structure itself must be made while holding {@link #getLock()}, so the indexer never walks a Folder that is being
+ * modified. The worker walks at most {@link #MAX_CHUNK} Nodes per acquisition of the lock and lets go of it in
+ * between, so a change to the structure never waits for a whole new index or a large insert to be indexed.
+ */
+public class BackgroundIndexer implements TreeModelListener {
+
+    /**
+     * Kind of a queued change.
+     */
+    private enum Kind {
+        INSERTED, REMOVED, CHANGED, REGISTERED
+    }
+
+    /**
+     * Single queued change of a single Node, or a new index to be built.
+     */
+    private static class Update {
+        final Kind kind;
+        final Node node; // changed Node, null for a new index
+        final NodeEvent.Property property; // changed property, null if unknown or not a change
+        final StructureIndex index; // new index, null for changes
+
+        Update(Kind kind, Node node, NodeEvent.Property property) {
+            this.kind = kind;
+            this.node = node;
+            this.property = property;
+            this.index = null;
+        }
+
+        Update(StructureIndex index) {
+            this.kind = Kind.REGISTERED;
+            this.node = null;
+            this.property = null;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Walk over a subtree, adding its Nodes to indexes or removing them, a chunk at a time. Folders are looked into
+     * when they're reached, so the walk sees changes made between chunks - those are queued and applied later.
+     */
+    private static class Walk {
+        final List<StructureIndex> targets; // indexes the Nodes are added to or removed from
+        final boolean adding; // true to add the Nodes, false to remove them
+        final ArrayDeque<Node> stack = new ArrayDeque<>(); // Nodes still to be visited
+
+        Walk(List<StructureIndex> targets, boolean adding, Node node) {
+            this.targets = targets;
+            this.adding = adding;
+            this.stack.push(node);
+        }
+
+        boolean isDone() {
+            return stack.isEmpty();
+        }
+
+        /**
+         * Visits Nodes until the walk is done or the limit is reached. Called with the lock held.
+         * @return number of visited Nodes
+         */
+        int step(int limit) {
+            int visited = 0;
+            while (visited < limit && !stack.isEmpty()) {
+                Node current = stack.pop();
+                for (StructureIndex index : targets) {
+                    if (adding)
+                        index.addNode(current);
+                    else
+                        index.removeNode(current);
+                }
+                if (current instanceof Folder)
+                    for (Node child : ((Folder) current).getChildren())
+                        stack.push(child);
+                visited++;
+            }
+            return visited;
+        }
+    }
+
+    static final int MAX_BATCH = 1024; // maximum number of queued changes applied at once
+    static final int MAX_CHUNK = 1024; // maximum number of Nodes indexed per acquisition of the lock
+
+    //region Fields
+    private final Node root; // root of the indexed structure
+    private final ArrayList<StructureIndex> indexes = new ArrayList<>(); // maintained indexes
+    private final LinkedBlockingQueue<Update> queue = new LinkedBlockingQueue<>(); // changes not yet applied
+    private final Object lock = new Object(); // held while indexes or the structure are accessed
+    private final Object progress = new Object(); // notified after every applied batch
+    private long queued = 0; // number of changes queued so far, guarded by progress
+    private long applied = 0; // number of changes applied so far, guarded by progress
+    private long batches = 0; // number of applied batches, guarded by progress
+    private final ArrayList<StructureIndex> unbuilt = new ArrayList<>(); // not filled yet, guarded by progress
+    private boolean stale = false; // true if a batch failed and the indexes must be rebuilt, guarded by lock
+    private Walk pending = null; // unfinished walk filling indexes, which reads can't do without, guarded by lock
+    private Throwable failure = null; // Error the worker died of, null while it's running, guarded by progress
+    private Thread worker = null; // started with the first queued change
+    //endregion
+
+    //region Constructors
+    public BackgroundIndexer(Node root) {
+        this.root = root;
+    }
+    //endregion
+
+    //region Getters
+    /**
+     * Returns the lock held while the indexer walks the structure. Code modifying the structure holds it as well.
+     * @return lock object
+     */
+    public Object getLock() {
+        return lock;
+    }
+
+    /**
+     * @return number of changes queued but not applied yet
+     */
+    public long getPendingCount() {
+        synchronized (progress) {
+            return queued - applied;
+        }
+    }
+
+    /**
+     * @return number of batches applied so far
+     */
+    public long getBatchCount() {
+        synchronized (progress) {
+            return batches;
+        }
+    }
+    //endregion
+
+    //region Indexes
+    /**
+     * Starts maintaining a new index. It's filled with the whole structure on the worker thread, after the changes
+     * queued so far - reads made through {@link #read(Supplier)} wait for it. Returns at once.
+     * @param index new, empty index
+     * @param <T> type of the index
+     * @return the passed index
+     */
+    public <T extends StructureIndex> T register(T index) {
+        synchronized (progress) {
+            unbuilt.add(index);
+        }
+        enqueue(new Update(index));
+        return index;
+    }
+
+    /**
+     * Waits until all changes queued so far are applied, then runs the read while no change is being applied.
+     * Changes queued while waiting aren't waited for. Rebuilds the indexes first if the worker failed to, and fills
+     * new indexes the worker hasn't finished yet, e.g. if called while holding {@link #getLock()}.
+     * @param read code reading the indexes
+     * @param <T> type of the result
+     * @return result of the read
+     * @throws IllegalStateException if the worker died of an Error
+     */
+    public <T> T read(Supplier<T> read) {
+        awaitCaughtUp();
+        synchronized (lock) {
+            for (StructureIndex index : takeUnbuilt())
+                fill(index);
+            if (stale) {
+                rebuild();
+            } else if (pending != null) {
+                pending.step(Integer.MAX_VALUE);
+                pending = null;
+            }
+            return read.get();
+        }
+    }
+
+    /**
+     * Blocks until every change queued before the call is applied to the indexes. Returns at once if called while
+     * holding {@link #getLock()} - the worker couldn't make progress, so waiting would never end.
+     * @throws IllegalStateException if the worker died of an Error, so the changes will never be applied
+     */
+    public void awaitCaughtUp() {
+        synchronized (progress) {
+            checkFailure();
+            if (Thread.holdsLock(lock))
+                return;
+            long target = queued;
+            boolean interrupted = false;
+            while (applied < target) {
+                try {
+                    progress.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+                checkFailure();
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called holding progress.
+     */
+    private void checkFailure() {
+        if (failure != null)
+            throw new IllegalStateException("Background indexing stopped", failure);
+    }
+    //endregion
+
+    //region TreeModelListener Overrides
+    @Override
+    public void treeNodesChanged(TreeModelEvent e) {
+        NodeEvent.Property property = (e instanceof TreeNodeChangedEvent)
+                ? ((TreeNodeChangedEvent) e).getProperty() : null;
+        Object[] children = e.getChildren();
+        if (children == null) // the root itself has changed
+            enqueue(new Update(Kind.CHANGED, (Node) e.getTreePath().getLastPathComponent(), property));
+        else
+            for (Object child : children)
+                enqueue(new Update(Kind.CHANGED, (Node) child, property));
+    }
+
+    @Override
+    public void treeNodesInserted(TreeModelEvent e) {
+        for (Object child : e.getChildren())
+            enqueue(new Update(Kind.INSERTED, (Node) child, null));
+    }
+
+    @Override
+    public void treeNodesRemoved(TreeModelEvent e) {
+        for (Object child : e.getChildren())
+            enqueue(new Update(Kind.REMOVED, (Node) child, null));
+    }
+
+    /**
+     * Sorting only reorders Nodes, which the indexes don't keep.
+     */
+    @Override
+    public void treeStructureChanged(TreeModelEvent e) {
+    }
+    //endregion
+
+    private void enqueue(Update update) {
+        synchronized (progress) {
+            queued++;
+            if (worker == null) {
+                worker = new Thread(this::run, "background-indexer");
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+        queue.add(update);
+    }
+
+    /**
+     * Worker loop - takes whatever is queued, up to {@link #MAX_BATCH} changes, and applies it as one batch. An Error
+     * stops the worker and is passed on to everyone waiting for it.
+     */
+    private void run() {
+        ArrayList<Update> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                try {
+                    apply(batch);
+                } catch (RuntimeException ex) {
+                    System.out.println("INFO: Indexing failed, rebuilding indexes: " + ex);
+                    synchronized (lock) {
+                        stale = true;
+                    }
+                }
+                try {
+                    rebuildInChunks();
+                } catch (RuntimeException ex) {
+                    System.out.println("INFO: Rebuilding indexes failed: " + ex);
+                }
+                synchronized (progress) {
+                    applied += batch.size();
+                    batches++;
+                    progress.notifyAll();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            // stopped on purpose
+        } catch (Throwable ex) {
+            System.out.println("INFO: Indexing stopped: " + ex);
+            synchronized (progress) {
+                failure = ex;
+                progress.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Applies one batch. Insertions, removals and new indexes are applied in order, walking at most
+     * {@link #MAX_CHUNK} Nodes per acquisition of the lock. Changes are collected and applied last, once per Node and
+     * property, and only to Nodes that are still in the structure.
+     */
+    private void apply(ArrayList<Update> batch) {
+        HashSet<Node> inserted = new HashSet<>(); // Nodes indexed since the last removal, with their subtrees
+        LinkedHashMap<Node, EnumSet<NodeEvent.Property>> changed = new LinkedHashMap<>();
+        int next = 0; // next update to start applying
+        Walk walk = null; // walk of the update being applied, null if none
+        while (true) {
+            synchronized (lock) {
+                int budget = MAX_CHUNK;
+                while (budget > 0) {
+                    if (walk != null) {
+                        budget -= walk.step(budget);
+                        if (!walk.isDone())
+                            break;
+                        if (pending == walk)
+                            pending = null;
+                        walk = null;
+                    } else if (next < batch.size()) {
+                        walk = start(batch.get(next++), inserted, changed);
+                        budget--;
+                    } else {
+                        applyChanges(changed);
+                        return;
+                    }
+                }
+            }
+            // the lock is free for a moment, changes to the structure made now are queued and applied later
+        }
+    }
+
+    /**
+     * Starts applying a single update. Called with the lock held.
+     * @return walk indexing the update, null if there's nothing to walk
+     */
+    private Walk start(Update update, HashSet<Node> inserted,
+                       LinkedHashMap<Node, EnumSet<NodeEvent.Property>> changed) {
+        switch (update.kind) {
+            case REGISTERED:
+                synchronized (progress) {
+                    if (!unbuilt.remove(update.index))
+                        return null; // already filled by a read
+                }
+                // listed first, so a rebuild fills it if filling it fails
+                indexes.add(update.index);
+                pending = new Walk(Collections.singletonList(update.index), true, root);
+                return pending;
+            case INSERTED:
+                if (hasAncestorIn(update.node, inserted))
+                    return null;
+                inserted.add(update.node);
+                return new Walk(indexes, true, update.node);
+            case REMOVED:
+                inserted.clear();
+                return new Walk(indexes, false, update.node);
+            case CHANGED:
+                EnumSet<NodeEvent.Property> properties = changed.computeIfAbsent(update.node,
+                        k -> EnumSet.noneOf(NodeEvent.Property.class));
+                if (update.property == null)
+                    properties.addAll(EnumSet.allOf(NodeEvent.Property.class));
+                else
+                    properties.add(update.property);
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * Applies the changes collected from a batch. Called with the lock held.
+     */
+    private void applyChanges(LinkedHashMap<Node, EnumSet<NodeEvent.Property>> changed) {
+        for (Map.Entry<Node, EnumSet<NodeEvent.Property>> entry : changed.entrySet()) {
+            if (!isAttached(entry.getKey()))
+                continue; // removed from the structure, updating would index it again
+            for (NodeEvent.Property property : entry.getValue())
+                for (StructureIndex index : indexes)
+                    index.update(entry.getKey(), property);
+        }
+    }
+
+    /**
+     * Starts maintaining a new index and fills it with the structure as it is now, all at once. Called with the lock
+     * held. Changes still queued are applied to it again later, which indexes allow.
+     */
+    private void fill(StructureIndex index) {
+        // listed first, so a rebuild fills it if filling it fails
+        indexes.add(index);
+        index.add(root);
+    }
+
+    /**
+     * Returns the registered indexes the worker hasn't started filling yet, e.g. because the reader holds the lock,
+     * and lets the caller fill them instead.
+     */
+    private ArrayList<StructureIndex> takeUnbuilt() {
+        synchronized (progress) {
+            ArrayList<StructureIndex> taken = new ArrayList<>(unbuilt);
+            unbuilt.clear();
+            return taken;
+        }
+    }
+
+    /**
+     * Fills every index with the structure as it is now, all at once. Called with the lock held.
+     */
+    private void rebuild() {
+        stale = true;
+        pending = null;
+        for (StructureIndex index : indexes) {
+            index.clear();
+            index.add(root);
+        }
+        stale = false;
+    }
+
+    /**
+     * Fills every index with the structure again if they're stale, a chunk at a time. A read made in the meantime
+     * rebuilds them all at once instead, the rest of the walk then only adds Nodes once more.
+     */
+    private void rebuildInChunks() {
+        Walk walk;
+        synchronized (lock) {
+            if (!stale)
+                return;
+            for (StructureIndex index : indexes)
+                index.clear();
+            walk = new Walk(indexes, true, root);
+        }
+        while (true) {
+            synchronized (lock) {
+                walk.step(MAX_CHUNK);
+                if (walk.isDone()) {
+                    stale = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean hasAncestorIn(Node node, HashSet<Node> nodes) {
+        for (Node ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent())
+            if (nodes.contains(ancestor))
+                return true;
+        return false;
+    }
+
+    private boolean isAttached(Node node) {
+        Node top = node;
+        while (top.getParent() != null)
+            top = top.getParent();
+        return top == root;
+    }
+}
@@ -0,0 +1,276 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
+import pl.gda.pg.eti.lsea.lab.Snippet;
+
+/**
+ * Full-text index over Snippet contents and titles, ranking matches with Okapi BM25. Text is split into tokens - runs
+ * of letters and digits, case-folded - and title tokens count {@link #TITLE_BOOST} times, so a term in the title
+ * weighs more than one in the body. Only the best k matches are kept while scoring, in a bounded heap, so broad terms
+ * don't sort every match.
+ *
+ * Term statistics (document frequencies, lengths) are kept up to date incrementally - an edited Snippet only changes
+ * the postings of the terms it gained or lost.
+ *
+ * Not thread-safe - meant to be updated by the owner of the structure, e.g. {@link pl.gda.pg.eti.lsea.lab.FolderTree}.
+ */
+public class Bm25Index implements StructureIndex {
+
+    static final double K1 = 1.2; // term frequency saturation
+    static final double B = 0.75; // document length normalization
+    static final int TITLE_BOOST = 3; // number of times a title token is counted
+
+    /**
+     * Snippet found by {@link #search(String, int)} along with its score.
+     */
+    public static class Match {
+        private final Node node; // matching Snippet
+        private final double score; // BM25 score, higher is better
+
+        Match(Node node, double score) {
+            this.node = node;
+            this.score = score;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%.3f)", node.getPath(), score);
+        }
+    }
+
+    //region Fields
+    private final HashMap<String, PostingList> postings = new HashMap<>(); // term -> ids of Snippets containing it
+    private final HashMap<Snippet, Integer> ids = new HashMap<>(); // Snippet -> id
+    private final ArrayList<Snippet> snippets = new ArrayList<>(); // id -> Snippet, null if the id is free
+    private final ArrayList<HashMap<String, Integer>> frequencies = new ArrayList<>(); // id -> term -> frequency
+    private final ArrayList<Integer> lengths = new ArrayList<>(); // id -> number of tokens, boosted
+    private final Deque<Integer> free_ids = new ArrayDeque<>(); // ids of removed Snippets, reused first
+    private long total_length = 0; // sum of lengths of all indexed Snippets
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of indexed Snippets
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return number of distinct terms
+     */
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    /**
+     * @param term single term, folded before the lookup
+     * @return number of Snippets containing the term
+     */
+    public int getDocumentFrequency(String term) {
+        PostingList list = postings.get(SearchTerm.fold(term));
+        return (list == null) ? 0 : list.size();
+    }
+
+    public boolean contains(Snippet snippet) {
+        return ids.containsKey(snippet);
+    }
+    //endregion
+
+    //region Mutators
+    @Override
+    public void addNode(Node node) {
+        if (node instanceof Snippet)
+            update((Snippet) node);
+    }
+
+    @Override
+    public void removeNode(Node node) {
+        if (node instanceof Snippet)
+            removeSnippet((Snippet) node);
+    }
+
+    /**
+     * {@inheritDoc} Snippets are re-indexed when their contents or titles change.
+     */
+    @Override
+    public void update(Node node, NodeEvent.Property property) {
+        if ((property == NodeEvent.Property.CONTENT || property == NodeEvent.Property.TITLE)
+                && node instanceof Snippet)
+            update((Snippet) node);
+    }
+
+    /**
+     * Re-indexes the current title and contents of a Snippet. Adds the Snippet if it wasn't indexed yet. Only
+     * postings of terms the Snippet gained or lost are touched.
+     * @param snippet edited Snippet
+     */
+    public void update(Snippet snippet) {
+        HashMap<String, Integer> terms = new HashMap<>();
+        int length = count(snippet.getTitle(), TITLE_BOOST, terms) + count(snippet.get(), 1, terms);
+        Integer id = ids.get(snippet);
+
+        if (id == null) {
+            id = free_ids.isEmpty() ? snippets.size() : free_ids.pop();
+            if (id == snippets.size()) {
+                snippets.add(snippet);
+                frequencies.add(terms);
+                lengths.add(length);
+            } else {
+                snippets.set(id, snippet);
+                frequencies.set(id, terms);
+                lengths.set(id, length);
+            }
+            ids.put(snippet, id);
+            for (String term : terms.keySet())
+                postings.computeIfAbsent(term, k -> new PostingList()).add(id);
+            total_length += length;
+            return;
+        }
+
+        HashMap<String, Integer> old_terms = frequencies.get(id);
+        for (String term : old_terms.keySet())
+            if (!terms.containsKey(term))
+                removePosting(term, id);
+        for (String term : terms.keySet())
+            if (!old_terms.containsKey(term))
+                postings.computeIfAbsent(term, k -> new PostingList()).add(id);
+        total_length += length - lengths.get(id);
+        frequencies.set(id, terms);
+        lengths.set(id, length);
+    }
+
+    /**
+     * Removes all Snippets from the index.
+     */
+    @Override
+    public void clear() {
+        postings.clear();
+        ids.clear();
+        snippets.clear();
+        frequencies.clear();
+        lengths.clear();
+        free_ids.clear();
+        total_length = 0;
+    }
+
+    private void removeSnippet(Snippet snippet) {
+        Integer id = ids.remove(snippet);
+        if (id == null)
+            return;
+        for (String term : frequencies.get(id).keySet())
+            removePosting(term, id);
+        total_length -= lengths.get(id);
+        snippets.set(id, null);
+        frequencies.set(id, null);
+        lengths.set(id, 0);
+        free_ids.push(id);
+    }
+
+    private void removePosting(String term, int id) {
+        PostingList list = postings.get(term);
+        if (list != null && list.remove(id) && list.isEmpty())
+            postings.remove(term);
+    }
+    //endregion
+
+    //region Search
+    /**
+     * Finds the k Snippets best matching the query, scored with BM25 summed over the query's terms. A Snippet
+     * matches if it contains at least one of the terms.
+     * @param query free text, split into terms the same way as indexed text
+     * @param k maximum number of returned matches
+     * @return at most k matches, best first; equal scores in structure order
+     */
+    public List<Match> search(String query, int k) {
+        ArrayList<Match> out = new ArrayList<>();
+        if (k <= 0 || ids.isEmpty())
+            return out;
+
+        HashMap<String, Integer> query_terms = new HashMap<>();
+        count(query, 1, query_terms);
+        double average_length = (double) total_length / ids.size();
+        int n = ids.size();
+
+        // term at a time, accumulating scores per Snippet id
+        HashMap<Integer, Double> scores = new HashMap<>();
+        for (String term : query_terms.keySet()) {
+            PostingList list = postings.get(term);
+            if (list == null)
+                continue;
+            double idf = Math.log(1 + (n - list.size() + 0.5) / (list.size() + 0.5));
+            for (int i = 0; i < list.size(); i++) {
+                int id = list.get(i);
+                int tf = frequencies.get(id).get(term);
+                double norm = K1 * (1 - B + B * lengths.get(id) / average_length);
+                scores.merge(id, idf * tf * (K1 + 1) / (tf + norm), Double::sum);
+            }
+        }
+
+        // bounded min-heap - the weakest of the best k is on top and gets replaced; equal scores are compared by
+        // structure order, positions are only looked up for ties
+        HashMap<Integer, int[]> positions = new HashMap<>();
+        Comparator<Map.Entry<Integer, Double>> weaker = Map.Entry.<Integer, Double>comparingByValue()
+                .thenComparing(entry -> positions.computeIfAbsent(entry.getKey(),
+                        id -> TreeOrder.position(snippets.get(id))), (p, q) -> Arrays.compare(q, p));
+        PriorityQueue<Map.Entry<Integer, Double>> heap = new PriorityQueue<>(k + 1, weaker);
+        for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (weaker.compare(entry, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+
+        ArrayList<Map.Entry<Integer, Double>> best = new ArrayList<>(heap);
+        best.sort(weaker.reversed());
+        for (Map.Entry<Integer, Double> entry : best)
+            out.add(new Match(snippets.get(entry.getKey()), entry.getValue()));
+        return out;
+    }
+
+    /**
+     * Splits text into case-folded tokens - maximal runs of letters and digits - and adds their counts to the map.
+     * @param text text to split
+     * @param weight number each token is counted as
+     * @param terms term -> frequency, updated in place
+     * @return number of tokens found, times the weight
+     */
+    static int count(String text, int weight, HashMap<String, Integer> terms) {
+        if (text == null)
+            return 0;
+        int tokens = 0;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                terms.merge(SearchTerm.fold(text.substring(start, i)), weight, Integer::sum);
+                tokens += weight;
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+    //endregion
+}
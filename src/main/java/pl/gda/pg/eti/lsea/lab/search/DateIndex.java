@@ -0,0 +1,203 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+
+/**
+ * Ordered index over dates of creation and of last edit of Nodes, keyed by epoch millis. Range queries and "N most
+ * recently edited" queries walk only the matching part of a sorted map, in O(log n + k), instead of comparing the
+ * dates of every Node in the structure. The number of Nodes in a range is estimated in O(log n).
+ *
+ * Dates are read when a Node is indexed or changed.
+ *
+ * Not thread-safe - meant to be updated by the owner of the structure, e.g. {@link pl.gda.pg.eti.lsea.lab.FolderTree}.
+ */
+public class DateIndex implements StructureIndex {
+
+    /**
+     * Number of distinct dates {@link #estimate(Field, Date, Date)} counts before it starts extrapolating.
+     */
+    public static final int ESTIMATE_KEYS = 64;
+
+    /**
+     * Indexed dates of a Node.
+     */
+    public enum Field {
+        CREATED, EDITED
+    }
+
+    //region Fields
+    private final TreeMap<Long, Set<Node>> created = new TreeMap<>(); // creation millis -> Nodes created then
+    private final TreeMap<Long, Set<Node>> edited = new TreeMap<>(); // edit millis -> Nodes last edited then
+    private final HashMap<Node, long[]> keys = new HashMap<>(); // Node -> {created, edited} millis it's indexed under
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of indexed Nodes
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean contains(Node node) {
+        return keys.containsKey(node);
+    }
+    //endregion
+
+    //region Mutators
+    @Override
+    public void addNode(Node node) {
+        update(node);
+    }
+
+    @Override
+    public void removeNode(Node node) {
+        long[] old_keys = keys.remove(node);
+        if (old_keys != null) {
+            removePosting(created, old_keys[0], node);
+            removePosting(edited, old_keys[1], node);
+        }
+    }
+
+    /**
+     * {@inheritDoc} Every change is relevant - editing a title, contents or language updates the date of last edit
+     * as well.
+     */
+    @Override
+    public void update(Node node, NodeEvent.Property property) {
+        update(node);
+    }
+
+    /**
+     * Re-indexes the current dates of a single Node. Adds the Node if it wasn't indexed yet.
+     * @param node changed Node
+     */
+    public void update(Node node) {
+        long created_key = node.getTimeCreated();
+        long edited_key = node.getTimeEdited();
+        long[] old_keys = keys.get(node);
+
+        if (old_keys == null) {
+            keys.put(node, new long[] {created_key, edited_key});
+            addPosting(created, created_key, node);
+            addPosting(edited, edited_key, node);
+            return;
+        }
+        if (old_keys[0] != created_key) {
+            removePosting(created, old_keys[0], node);
+            addPosting(created, created_key, node);
+            old_keys[0] = created_key;
+        }
+        if (old_keys[1] != edited_key) {
+            removePosting(edited, old_keys[1], node);
+            addPosting(edited, edited_key, node);
+            old_keys[1] = edited_key;
+        }
+    }
+
+    /**
+     * Removes all Nodes from the index.
+     */
+    @Override
+    public void clear() {
+        created.clear();
+        edited.clear();
+        keys.clear();
+    }
+
+    private static void addPosting(TreeMap<Long, Set<Node>> map, long key, Node node) {
+        map.computeIfAbsent(key, k -> new LinkedHashSet<>(2)).add(node);
+    }
+
+    private static void removePosting(TreeMap<Long, Set<Node>> map, long key, Node node) {
+        Set<Node> posting = map.get(key);
+        if (posting != null && posting.remove(node) && posting.isEmpty())
+            map.remove(key);
+    }
+    //endregion
+
+    //region Search
+    /**
+     * Finds Nodes whose date falls within the range. Either bound can be null, leaving that side of the range open.
+     * @param field date to be compared
+     * @param from start of the range, inclusive
+     * @param to end of the range, exclusive
+     * @return ArrayList of matching Nodes, oldest first
+     */
+    public ArrayList<Node> search(Field field, Date from, Date to) {
+        ArrayList<Node> found = new ArrayList<>();
+        for (Set<Node> posting : range(field, from, to).values())
+            found.addAll(posting);
+        return found;
+    }
+
+    /**
+     * Estimates the number of Nodes whose date falls within the range, without collecting them. Counts the Nodes of
+     * the first {@link #ESTIMATE_KEYS} distinct dates in the range - exactly, if that's all of them - and extrapolates
+     * their density over the rest of the range, so the cost doesn't grow with the size of the range.
+     * @see #search(Field, Date, Date)
+     * @param field date to be compared
+     * @param from start of the range, inclusive
+     * @param to end of the range, exclusive
+     * @return estimated number of matching Nodes
+     */
+    public int estimate(Field field, Date from, Date to) {
+        NavigableMap<Long, Set<Node>> range = range(field, from, to);
+        if (range.isEmpty())
+            return 0;
+
+        long first = range.firstKey();
+        long last = range.lastKey();
+        long sampled = first; // last date counted
+        int count = 0;
+        int dates = 0;
+        for (Map.Entry<Long, Set<Node>> entry : range.entrySet()) {
+            if (dates++ == ESTIMATE_KEYS)
+                return (int) Math.min(keys.size(), Math.round((double) count * (last - first) / (sampled - first)));
+            sampled = entry.getKey();
+            count += entry.getValue().size();
+        }
+        return count;
+    }
+
+    /**
+     * Finds the most recent Nodes, e.g. the most recently edited ones.
+     * @param field date to be compared
+     * @param count maximum number of returned Nodes
+     * @return ArrayList of at most count Nodes, newest first
+     */
+    public ArrayList<Node> searchLatest(Field field, int count) {
+        ArrayList<Node> found = new ArrayList<>(Math.min(Math.max(count, 0), keys.size()));
+        for (Map.Entry<Long, Set<Node>> entry : getMap(field).descendingMap().entrySet()) {
+            for (Node node : entry.getValue()) {
+                if (found.size() >= count)
+                    return found;
+                found.add(node);
+            }
+        }
+        return found;
+    }
+
+    private NavigableMap<Long, Set<Node>> range(Field field, Date from, Date to) {
+        NavigableMap<Long, Set<Node>> range = getMap(field);
+        if (from != null)
+            range = range.tailMap(from.getTime(), true);
+        if (to != null)
+            range = range.headMap(to.getTime(), false);
+        return range;
+    }
+
+    private TreeMap<Long, Set<Node>> getMap(Field field) {
+        return (field == Field.CREATED) ? created : edited;
+    }
+    //endregion
+}
@@ -0,0 +1,276 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
+
+/**
+ * Fuzzy title lookup backed by a BK-tree over distinct case-folded titles, with Levenshtein (edit) distance as the
+ * metric. Children of a BK-tree entry are keyed by their distance to it, so by the triangle inequality a query only
+ * descends into children whose key is within the allowed distance of the query's own distance to the entry - most of
+ * the titles are never compared against. Comparisons themselves stop early once the distance is too large for the
+ * entry or any of its children to match.
+ *
+ * BK-trees can't drop entries, so titles no Node carries anymore stay in the tree as empty routing entries and the
+ * tree is rebuilt once they outnumber the live titles.
+ *
+ * Not thread-safe - meant to be updated by the owner of the structure, e.g. {@link pl.gda.pg.eti.lsea.lab.FolderTree}.
+ */
+public class FuzzyTitleIndex implements StructureIndex {
+
+    /**
+     * A Node found by a fuzzy search, with its distance from the search term.
+     */
+    public static class Match {
+        private final Node node;
+        private final int distance;
+
+        Match(Node node, int distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+        public int getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return node + " (" + distance + ")";
+        }
+    }
+
+    /**
+     * Entry of the BK-tree - one distinct folded title and the Nodes carrying it.
+     */
+    private static class Entry {
+        private final String title;
+        private final Set<Node> nodes = new LinkedHashSet<>();
+        private Map<Integer, Entry> children = null; // distance from this entry -> child
+        private int max_key = 0; // largest distance a child is keyed by
+
+        Entry(String title) {
+            this.title = title;
+        }
+    }
+
+    //region Fields
+    private Entry root = null; // root of the BK-tree
+    private final HashMap<String, Entry> entries = new HashMap<>(); // folded title -> its entry
+    private final HashMap<Node, String> keys = new HashMap<>(); // Node -> folded title it's indexed under
+    private int empty_entries = 0; // entries no Node carries anymore
+    private int longest_key = 0; // length of the longest title in the BK-tree, no distance to a title is larger
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of indexed Nodes
+     */
+    public int size() {
+        return keys.size();
+    }
+    //endregion
+
+    //region Mutators
+    @Override
+    public void addNode(Node node) {
+        update(node);
+    }
+
+    /**
+     * {@inheritDoc} Rebuilds the BK-tree once titles no Node carries anymore outnumber the live ones.
+     */
+    @Override
+    public void removeNode(Node node) {
+        String key = keys.remove(node);
+        if (key == null)
+            return;
+        removePosting(key, node);
+        if (empty_entries > entries.size() - empty_entries)
+            rebuild();
+    }
+
+    /**
+     * {@inheritDoc} Only renamed Nodes are re-indexed.
+     */
+    @Override
+    public void update(Node node, NodeEvent.Property property) {
+        if (property == NodeEvent.Property.TITLE)
+            update(node);
+    }
+
+    /**
+     * Re-indexes the current title of a single Node. Adds the Node if it wasn't indexed yet.
+     * @param node renamed Node
+     */
+    public void update(Node node) {
+        String key = node.getFoldedTitle();
+        String old_key = keys.put(node, key);
+        if (key.equals(old_key))
+            return;
+        if (old_key != null)
+            removePosting(old_key, node);
+
+        Entry entry = entries.get(key);
+        if (entry == null)
+            entry = insert(key);
+        else if (entry.nodes.isEmpty())
+            empty_entries--;
+        entry.nodes.add(node);
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        entries.clear();
+        keys.clear();
+        empty_entries = 0;
+        longest_key = 0;
+    }
+
+    private Entry insert(String key) {
+        Entry entry = new Entry(key);
+        entries.put(key, entry);
+        longest_key = Math.max(longest_key, key.length());
+        if (root == null) {
+            root = entry;
+            return entry;
+        }
+
+        Entry current = root;
+        while (true) {
+            int d = distance(key, current.title, Integer.MAX_VALUE);
+            if (current.children == null)
+                current.children = new HashMap<>(4);
+            Entry next = current.children.get(d);
+            if (next == null) {
+                current.children.put(d, entry);
+                current.max_key = Math.max(current.max_key, d);
+                return entry;
+            }
+            current = next;
+        }
+    }
+
+    private void removePosting(String key, Node node) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.nodes.remove(node) && entry.nodes.isEmpty())
+            empty_entries++;
+    }
+
+    /**
+     * Builds the BK-tree again from live titles only.
+     */
+    private void rebuild() {
+        ArrayList<Entry> live = new ArrayList<>();
+        for (Entry entry : entries.values())
+            if (!entry.nodes.isEmpty())
+                live.add(entry);
+
+        root = null;
+        entries.clear();
+        empty_entries = 0;
+        longest_key = 0;
+        for (Entry old : live)
+            insert(old.title).nodes.addAll(old.nodes);
+    }
+    //endregion
+
+    /**
+     * Finds Nodes whose case-folded title is at most max_distance edits (insertions, deletions, substitutions) away
+     * from the case-folded term. Closest matches come first, equally close matches in structure order.
+     * @param term String to be searched for
+     * @param max_distance maximum edit distance
+     * @return list of matches with their distances
+     * @throws IllegalArgumentException if the distance is negative
+     */
+    public List<Match> search(String term, int max_distance) {
+        if (max_distance < 0)
+            throw new IllegalArgumentException("Edit distance can't be negative: " + max_distance);
+        String needle = SearchTerm.fold(term);
+        // no title is further away than the longer of the two is long, a larger limit would only overflow below
+        max_distance = Math.min(max_distance, Math.max(needle.length(), longest_key));
+        ArrayList<Entry> found = new ArrayList<>();
+        ArrayList<Integer> distances = new ArrayList<>();
+
+        if (root != null) {
+            Deque<Entry> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Entry entry = stack.pop();
+                // past this distance neither the entry nor any of its children can match
+                int d = distance(needle, entry.title, max_distance + entry.max_key);
+                if (d <= max_distance && !entry.nodes.isEmpty()) {
+                    found.add(entry);
+                    distances.add(d);
+                }
+                if (entry.children != null)
+                    for (Map.Entry<Integer, Entry> child : entry.children.entrySet())
+                        if (Math.abs(child.getKey() - d) <= max_distance)
+                            stack.push(child.getValue());
+            }
+        }
+
+        // rank by distance, keep structure order within a distance
+        ArrayList<Node> nodes = new ArrayList<>();
+        HashMap<Node, Integer> node_distance = new HashMap<>();
+        for (int i = 0; i < found.size(); i++)
+            for (Node node : found.get(i).nodes) {
+                nodes.add(node);
+                node_distance.put(node, distances.get(i));
+            }
+
+        ArrayList<Match> matches = new ArrayList<>(nodes.size());
+        for (Node node : TreeOrder.sort(nodes))
+            matches.add(new Match(node, node_distance.get(node)));
+        matches.sort(Comparator.comparingInt(Match::getDistance)); // stable
+        return matches;
+    }
+
+    /**
+     * Levenshtein distance between two Strings, using two rows of the distance matrix. Stops early and returns
+     * limit + 1 once the distance is known to exceed the limit.
+     * @param a first String
+     * @param b second String
+     * @param limit largest distance of interest
+     * @return edit distance, or limit + 1 if it's larger than the limit
+     */
+    public static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit)
+            return limit + 1;
+
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++)
+            previous[j] = j;
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int row_min = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = (ca == b.charAt(j - 1)) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                row_min = Math.min(row_min, current[j]);
+            }
+            if (row_min > limit)
+                return limit + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,241 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
+import pl.gda.pg.eti.lsea.lab.Snippet;
+
+/**
+ * Facet index over Snippet languages. Languages are normalized (trimmed and case-folded, so "Java " and "java" are
+ * the same facet) and every facet keeps a bitmap of ids of the Snippets written in it, along with their count.
+ * Counting Snippets in a language is a map lookup, filtering by language a bit test per Node.
+ *
+ * Not thread-safe - meant to be updated by the owner of the structure, e.g. {@link pl.gda.pg.eti.lsea.lab.FolderTree}.
+ */
+public class LanguageIndex implements StructureIndex {
+
+    /**
+     * Snippets written in one language.
+     */
+    private static class Facet {
+        final String label; // language as written by the first Snippet in the facet
+        final BitSet members = new BitSet(); // ids of Snippets in the facet
+        int count = 0; // number of set bits, kept so counting doesn't scan the bitmap
+
+        Facet(String label) {
+            this.label = label;
+        }
+    }
+
+    //region Fields
+    private final HashMap<String, Facet> facets = new HashMap<>(); // normalized language -> facet
+    private final HashMap<Snippet, Integer> ids = new HashMap<>(); // Snippet -> id
+    private final ArrayList<Snippet> snippets = new ArrayList<>(); // id -> Snippet, null if the id is free
+    private final ArrayList<String> snippet_langs = new ArrayList<>(); // id -> normalized language it's indexed under
+    private final Deque<Integer> free_ids = new ArrayDeque<>(); // ids of removed Snippets, reused first
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of indexed Snippets
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return number of distinct normalized languages
+     */
+    public int getLanguageCount() {
+        return facets.size();
+    }
+
+    /**
+     * Returns the number of Snippets written in the language without looking at any of them.
+     * @param lang language, normalized before the lookup
+     * @return number of Snippets in the language, 0 if there are none
+     */
+    public int count(String lang) {
+        Facet facet = facets.get(normalize(lang));
+        return (facet == null) ? 0 : facet.count;
+    }
+
+    /**
+     * Returns the number of Snippets in every language, most common languages first.
+     * @return language label -> number of Snippets
+     */
+    public LinkedHashMap<String, Integer> getCounts() {
+        ArrayList<Facet> sorted = new ArrayList<>(facets.values());
+        sorted.sort((a, b) -> (a.count != b.count) ? Integer.compare(b.count, a.count) : a.label.compareTo(b.label));
+
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+        for (Facet facet : sorted)
+            counts.put(facet.label, facet.count);
+        return counts;
+    }
+
+    public boolean contains(Snippet snippet) {
+        return ids.containsKey(snippet);
+    }
+
+    /**
+     * Normalizes a language the way the index does: surrounding whitespace is dropped and the rest case-folded.
+     * @param lang language as written in a Snippet
+     * @return normalized language
+     */
+    public static String normalize(String lang) {
+        return (lang == null) ? "" : SearchTerm.fold(lang.trim());
+    }
+    //endregion
+
+    //region Mutators
+    @Override
+    public void addNode(Node node) {
+        if (node instanceof Snippet)
+            update((Snippet) node);
+    }
+
+    @Override
+    public void removeNode(Node node) {
+        if (node instanceof Snippet)
+            removeSnippet((Snippet) node);
+    }
+
+    /**
+     * {@inheritDoc} Only Snippets with a changed language are re-indexed.
+     */
+    @Override
+    public void update(Node node, NodeEvent.Property property) {
+        if (property == NodeEvent.Property.LANG && node instanceof Snippet)
+            update((Snippet) node);
+    }
+
+    /**
+     * Moves a Snippet to the facet of its current language. Adds the Snippet to the index if it wasn't indexed yet.
+     * @param snippet Snippet with a new language
+     */
+    public void update(Snippet snippet) {
+        String key = normalize(snippet.getLang());
+        Integer id = ids.get(snippet);
+
+        if (id == null) {
+            id = free_ids.isEmpty() ? snippets.size() : free_ids.pop();
+            if (id == snippets.size()) {
+                snippets.add(snippet);
+                snippet_langs.add(key);
+            } else {
+                snippets.set(id, snippet);
+                snippet_langs.set(id, key);
+            }
+            ids.put(snippet, id);
+        } else {
+            String old_key = snippet_langs.get(id);
+            if (old_key.equals(key))
+                return;
+            removeMember(old_key, id);
+            snippet_langs.set(id, key);
+        }
+
+        Facet facet = facets.computeIfAbsent(key, k -> new Facet((snippet.getLang() == null) ? ""
+                : snippet.getLang().trim()));
+        facet.members.set(id);
+        facet.count++;
+    }
+
+    /**
+     * Removes all Snippets from the index.
+     */
+    @Override
+    public void clear() {
+        facets.clear();
+        ids.clear();
+        snippets.clear();
+        snippet_langs.clear();
+        free_ids.clear();
+    }
+
+    private void removeSnippet(Snippet snippet) {
+        Integer id = ids.remove(snippet);
+        if (id == null)
+            return;
+        removeMember(snippet_langs.get(id), id);
+        snippets.set(id, null);
+        snippet_langs.set(id, null);
+        free_ids.push(id);
+    }
+
+    private void removeMember(String key, int id) {
+        Facet facet = facets.get(key);
+        facet.members.clear(id);
+        if (--facet.count == 0)
+            facets.remove(key);
+    }
+    //endregion
+
+    //region Search
+    /**
+     * Finds all Snippets written in the language.
+     * @param lang language, normalized before the lookup
+     * @return ArrayList of Snippets in structure order
+     */
+    public ArrayList<Node> search(String lang) {
+        ArrayList<Node> found = new ArrayList<>();
+        Facet facet = facets.get(normalize(lang));
+        if (facet == null)
+            return found;
+
+        for (int id = facet.members.nextSetBit(0); id >= 0; id = facet.members.nextSetBit(id + 1))
+            found.add(snippets.get(id));
+        return TreeOrder.sort(found);
+    }
+
+    /**
+     * Finds Snippets written in the language whose titles contain the term. Only the Snippets in the facet are
+     * looked at, so this is the cheaper plan for rare languages.
+     * @param lang language, normalized before the lookup
+     * @param title precompiled search term matched against titles
+     * @return ArrayList of Snippets in structure order
+     */
+    public ArrayList<Node> search(String lang, SearchTerm title) {
+        ArrayList<Node> found = new ArrayList<>();
+        Facet facet = facets.get(normalize(lang));
+        if (facet == null)
+            return found;
+
+        for (int id = facet.members.nextSetBit(0); id >= 0; id = facet.members.nextSetBit(id + 1)) {
+            Snippet snippet = snippets.get(id);
+            if (snippet.matchesTitle(title))
+                found.add(snippet);
+        }
+        return TreeOrder.sort(found);
+    }
+
+    /**
+     * Keeps only the Nodes written in the language, e.g. results of a title search. One bit test per Node, order of
+     * the passed Nodes is kept. This is the cheaper plan for common languages.
+     * @param nodes Nodes to be filtered
+     * @param lang language, normalized before the lookup
+     * @return ArrayList of Snippets in the language
+     */
+    public ArrayList<Node> filter(Collection<? extends Node> nodes, String lang) {
+        ArrayList<Node> found = new ArrayList<>();
+        Facet facet = facets.get(normalize(lang));
+        if (facet == null)
+            return found;
+
+        for (Node node : nodes) {
+            Integer id = ids.get(node);
+            if (id != null && facet.members.get(id))
+                found.add(node);
+        }
+        return found;
+    }
+    //endregion
+}
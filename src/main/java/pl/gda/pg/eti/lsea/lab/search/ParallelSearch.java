@@ -0,0 +1,256 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
+import pl.gda.pg.eti.lsea.lab.testing.RandomStructure;
+
+/**
+ * Fork/join search over a folder structure. Work is split directly on the Folder hierarchy - a range of children is
+ * halved by subtree size ({@link Node#getSubtreeSize()}) until it's small enough to be searched sequentially - so the
+ * structure is never copied into a flat list first. Idle workers steal the forked halves. Every task collects its own
+ * hits and results are merged by linking the per-task lists together, without any shared synchronized list.
+ *
+ * Results come in the same order as from {@link Folder#searchTitle(String)}. The structure must not be modified while
+ * a search is running.
+ */
+public class ParallelSearch {
+
+    /**
+     * Default number of Nodes below which a part of the structure is searched sequentially.
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    //region Fields
+    private final ForkJoinPool pool; // pool running the search tasks
+    private final int threshold; // subtree size below which a task stops splitting
+    //endregion
+
+    //region Constructors
+    public ParallelSearch() {
+        this(ForkJoinPool.commonPool());
+    }
+    public ParallelSearch(ForkJoinPool pool) {
+        this(pool, DEFAULT_THRESHOLD);
+    }
+    public ParallelSearch(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = Math.max(1, threshold);
+    }
+    //endregion
+
+    /**
+     * Non-case-sensitive search on titles of the passed Node and all Nodes below it.
+     * @param root Node to start the search at
+     * @param term String to be searched for
+     * @return ArrayList of matching Nodes in structure order
+     */
+    public ArrayList<Node> searchTitle(Node root, String term) {
+        return searchTitle(root, new SearchTerm(term));
+    }
+    public ArrayList<Node> searchTitle(Node root, SearchTerm term) {
+        return search(root, node -> node.matchesTitle(term));
+    }
+
+    /**
+     * Non-case-sensitive search on contents of all Snippets within the passed Node.
+     * @param root Node to start the search at
+     * @param term search term to be compared against snippet contents
+     * @return ArrayList of matching Snippets in structure order
+     */
+    public ArrayList<Node> searchContent(Node root, String term) {
+        return searchContent(root, new SearchTerm(term));
+    }
+    public ArrayList<Node> searchContent(Node root, SearchTerm term) {
+        return search(root, node -> node.matchesContent(term));
+    }
+
+    /**
+     * Finds all Nodes matching a predicate, starting at the passed Node. The predicate is called concurrently from
+     * the pool's worker threads.
+     * @param root Node to start the search at
+     * @param matcher predicate selecting found Nodes
+     * @return ArrayList of matching Nodes in structure order
+     */
+    public ArrayList<Node> search(Node root, Predicate<Node> matcher) {
+        Hits hits = new Hits();
+        if (matcher.test(root))
+            hits.add(root);
+        if (root instanceof Folder) {
+            Folder folder = (Folder) root;
+            hits.append(pool.invoke(new SearchTask(folder, 0, folder.getChildren().size(), matcher)));
+        }
+        return hits.toList();
+    }
+
+    /**
+     * Searches the structures of a range of children of one Folder.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class SearchTask extends RecursiveTask<Hits> {
+
+        private final Folder folder; // Folder whose children are searched
+        private final int from; // first child searched, inclusive
+        private final int to; // last child searched, exclusive
+        private final Predicate<Node> matcher; // predicate selecting found Nodes
+
+        SearchTask(Folder folder, int from, int to, Predicate<Node> matcher) {
+            this.folder = folder;
+            this.from = from;
+            this.to = to;
+            this.matcher = matcher;
+        }
+
+        @Override
+        protected Hits compute() {
+            Hits hits = new Hits();
+            Deque<Hits> tails = new ArrayDeque<>(); // hits of ranges after the current one, the last one on top
+            Folder current = folder;
+            int lo = from;
+            int hi = to;
+            while (true) {
+                List<Node> children = current.getChildren();
+                int size = 0;
+                for (int i = lo; i < hi; i++)
+                    size += children.get(i).getSubtreeSize();
+
+                if (size <= threshold) {
+                    hits.append(scan(children, lo, hi));
+                    return withTails(hits, tails);
+                }
+
+                if (hi - lo == 1) {
+                    // a single large Folder - check it and split its own children, in a loop so deep chains of
+                    // single Folders don't nest calls
+                    Folder only = (Folder) children.get(lo);
+                    if (matcher.test(only))
+                        hits.add(only);
+                    current = only;
+                    lo = 0;
+                    hi = only.getChildren().size();
+                    continue;
+                }
+
+                // split the range so that both halves hold about the same number of Nodes
+                int mid = lo + 1;
+                int left_size = children.get(lo).getSubtreeSize();
+                while (mid < hi - 1 && left_size + children.get(mid).getSubtreeSize() <= size / 2)
+                    left_size += children.get(mid++).getSubtreeSize();
+
+                // a small half is scanned right away and the loop goes on with the other one, so chains of large
+                // Folders with small siblings don't nest calls either
+                if (left_size <= threshold) {
+                    hits.append(scan(children, lo, mid));
+                    lo = mid;
+                } else if (size - left_size <= threshold) {
+                    tails.push(scan(children, mid, hi));
+                    hi = mid;
+                } else {
+                    SearchTask left = new SearchTask(current, lo, mid, matcher);
+                    SearchTask right = new SearchTask(current, mid, hi, matcher);
+                    left.fork();
+                    Hits right_hits = right.compute();
+                    hits.append(left.join());
+                    hits.append(right_hits);
+                    return withTails(hits, tails);
+                }
+            }
+        }
+
+        /**
+         * @return hits followed by the hits of the ranges after them, in structure order
+         */
+        private Hits withTails(Hits hits, Deque<Hits> tails) {
+            while (!tails.isEmpty())
+                hits.append(tails.pop());
+            return hits;
+        }
+
+        /**
+         * Sequential depth-first search over a range of children.
+         */
+        private Hits scan(List<Node> children, int lo, int hi) {
+            Hits hits = new Hits();
+            Deque<Node> stack = new ArrayDeque<>();
+            for (int i = hi - 1; i >= lo; i--)
+                stack.push(children.get(i));
+
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (matcher.test(node))
+                    hits.add(node);
+                if (node instanceof Folder) {
+                    List<Node> sub = ((Folder) node).getChildren();
+                    for (int i = sub.size() - 1; i >= 0; i--)
+                        stack.push(sub.get(i));
+                }
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Results of one task - a list of hit chunks. Merging two results only links their chunks, hits themselves are
+     * copied once, when the final list is built.
+     */
+    private static class Hits {
+
+        private final ArrayList<ArrayList<Node>> chunks = new ArrayList<>(1);
+        private ArrayList<Node> last = null; // chunk new hits are added to
+        private int size = 0;
+
+        void add(Node node) {
+            if (last == null) {
+                last = new ArrayList<>();
+                chunks.add(last);
+            }
+            last.add(node);
+            size++;
+        }
+
+        void append(Hits other) {
+            chunks.addAll(other.chunks);
+            last = null;
+            size += other.size;
+        }
+
+        ArrayList<Node> toList() {
+            ArrayList<Node> out = new ArrayList<>(size);
+            for (ArrayList<Node> chunk : chunks)
+                out.addAll(chunk);
+            return out;
+        }
+    }
+
+    /**
+     * Compares sequential and fork/join title search on a large randomly generated file structure.
+     * @param args
+     */
+    public static void main(String[] args) {
+        System.out.println("INFO: Generating random structure...");
+        Folder root = new RandomStructure(12, 6).generate();
+        System.out.println("INFO: Generated " + root.getSubtreeSize() + " Nodes.");
+
+        long start = System.nanoTime();
+        int found = root.searchTitle("Cube").size();
+        System.out.println("INFO: Sequential search found " + found + " elements in "
+                + (System.nanoTime() - start) / 1000000 + " milliseconds.");
+
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelSearch search = new ParallelSearch(pool);
+            start = System.nanoTime();
+            found = search.searchTitle(root, "Cube").size();
+            System.out.println("INFO: Fork/join search on " + threads + " threads found " + found + " elements in "
+                    + (System.nanoTime() - start) / 1000000 + " milliseconds.");
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+
+/**
+ * Fork/join recursive sort of a folder structure. Every Folder's children are sorted independently of any other
+ * Folder, so separate subtrees are sorted concurrently. Work is split the same way as in {@link ParallelSearch} - a
+ * range of already sorted children is halved by subtree size until it's small enough to be sorted sequentially.
+ *
+ * Children are sorted with {@link List#sort(Comparator)}, which is stable, so children comparing as equal keep their
+ * order no matter how the work was split. The comparator is called concurrently from the pool's worker threads.
+ * The structure must not be modified, or read by other threads, while a sort is running.
+ */
+public class ParallelSort {
+
+    /**
+     * Default number of Nodes below which a part of the structure is sorted sequentially.
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    //region Fields
+    private final ForkJoinPool pool; // pool running the sort tasks
+    private final int threshold; // subtree size below which a task stops splitting
+    //endregion
+
+    //region Constructors
+    public ParallelSort() {
+        this(ForkJoinPool.commonPool());
+    }
+    public ParallelSort(ForkJoinPool pool) {
+        this(pool, DEFAULT_THRESHOLD);
+    }
+    public ParallelSort(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = Math.max(1, threshold);
+    }
+    //endregion
+
+    /**
+     * Sorts the children of the passed Folder and of every Folder below it. Small structures are sorted on the
+     * calling thread.
+     * @param root Folder to start the sort at
+     * @param comparator order of children, must be safe to call from several threads
+     */
+    public void sort(Folder root, Comparator<? super Node> comparator) {
+        if (root.getSubtreeSize() <= threshold) {
+            sortSequentially(root, comparator);
+            return;
+        }
+        root.sortChildren(comparator);
+        pool.invoke(new SortTask(root, 0, root.getChildren().size(), comparator));
+    }
+
+    /**
+     * Sorts the structure below one Folder on the calling thread, without recursion.
+     * @param root Folder to start the sort at
+     * @param comparator order of children
+     */
+    public static void sortSequentially(Folder root, Comparator<? super Node> comparator) {
+        root.sortChildren(comparator);
+        sortBelow(root, comparator);
+    }
+
+    /**
+     * Sorts the structure below a Folder whose own children are already sorted, on the calling thread.
+     */
+    private static void sortBelow(Folder root, Comparator<? super Node> comparator) {
+        Deque<Folder> stack = new ArrayDeque<>();
+        for (Node child : root.getChildren())
+            if (child instanceof Folder)
+                stack.push((Folder) child);
+        while (!stack.isEmpty()) {
+            Folder folder = stack.pop();
+            folder.sortChildrenTopDown(comparator);
+            for (Node child : folder.getChildren())
+                if (child instanceof Folder)
+                    stack.push((Folder) child);
+        }
+    }
+
+    /**
+     * Sorts the structures of a range of children of one Folder. The Folder's own children are already sorted.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class SortTask extends RecursiveAction {
+
+        private final Folder folder; // Folder whose children's structures are sorted
+        private final int from; // first child, inclusive
+        private final int to; // last child, exclusive
+        private final Comparator<? super Node> comparator; // order of children
+
+        SortTask(Folder folder, int from, int to, Comparator<? super Node> comparator) {
+            this.folder = folder;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            Folder current = folder;
+            int lo = from;
+            int hi = to;
+            while (true) {
+                List<Node> children = current.getChildren();
+                int size = 0;
+                for (int i = lo; i < hi; i++)
+                    size += children.get(i).getSubtreeSize();
+
+                if (size <= threshold) {
+                    sortRange(children, lo, hi);
+                    return;
+                }
+
+                if (hi - lo == 1) {
+                    // a single large Folder - sort it and split its own children, in a loop so deep chains of
+                    // single Folders don't nest calls
+                    Folder only = (Folder) children.get(lo);
+                    only.sortChildrenTopDown(comparator);
+                    current = only;
+                    lo = 0;
+                    hi = only.getChildren().size();
+                    continue;
+                }
+
+                // split the range so that both halves hold about the same number of Nodes
+                int mid = lo + 1;
+                int left_size = children.get(lo).getSubtreeSize();
+                while (mid < hi - 1 && left_size + children.get(mid).getSubtreeSize() <= size / 2)
+                    left_size += children.get(mid++).getSubtreeSize();
+
+                // a small half is sorted right away and the loop goes on with the other one, so chains of large
+                // Folders with small siblings don't nest calls either
+                if (left_size <= threshold) {
+                    sortRange(children, lo, mid);
+                    lo = mid;
+                } else if (size - left_size <= threshold) {
+                    sortRange(children, mid, hi);
+                    hi = mid;
+                } else {
+                    invokeAll(new SortTask(current, lo, mid, comparator), new SortTask(current, mid, hi, comparator));
+                    return;
+                }
+            }
+        }
+
+        private void sortRange(List<Node> children, int lo, int hi) {
+            for (int i = lo; i < hi; i++)
+                if (children.get(i) instanceof Folder) {
+                    Folder child = (Folder) children.get(i);
+                    child.sortChildrenTopDown(comparator);
+                    sortBelow(child, comparator);
+                }
+        }
+    }
+}
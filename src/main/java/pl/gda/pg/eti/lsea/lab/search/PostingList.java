@@ -0,0 +1,70 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of primitive int ids used as a postings list by the search indexes. Adding an id greater than every id
+ * in the list - a new id, as indexes hand them out in increasing order - is an append. Indexes reuse the ids of
+ * removed entries, though, and adding a smaller id or removing one shifts the tail of the array, linear in the length
+ * of the list.
+ */
+public class PostingList {
+
+    private int[] ids = new int[4]; // sorted ids, only the first size entries are used
+    private int size = 0; // number of ids in the list
+
+    //region Getters
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    public int get(int index) {
+        return ids[index];
+    }
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+    //endregion
+
+    //region Mutators
+    /**
+     * Adds an id to the list, keeping it sorted.
+     * @param id id to add
+     * @return true if the id wasn't in the list yet
+     */
+    public boolean add(int id) {
+        int at;
+        if (size == 0 || ids[size - 1] < id) {
+            at = size; // new ids, append
+        } else {
+            at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0)
+                return false;
+            at = -at - 1;
+        }
+
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, size * 2);
+        System.arraycopy(ids, at, ids, at + 1, size - at);
+        ids[at] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an id from the list.
+     * @param id id to remove
+     * @return true if the id was in the list
+     */
+    public boolean remove(int id) {
+        int at = Arrays.binarySearch(ids, 0, size, id);
+        if (at < 0)
+            return false;
+        System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+        size--;
+        return true;
+    }
+    //endregion
+}
@@ -0,0 +1,285 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
+import pl.gda.pg.eti.lsea.lab.Snippet;
+
+/**
+ * Parsed compound query - a list of clauses that all have to match. Written as space separated clauses:
+ * <pre>
+ *     title:cube lang:java edited:&gt;2026-01-01 content:"public void"
+ * </pre>
+ * Supported fields are {@code title}, {@code lang}, {@code content}, {@code created} and {@code edited}. A word
+ * without a field is a title clause. Values with spaces go in double quotes. Dates are written as
+ * {@code yyyy-MM-dd} or {@code yyyy-MM-ddTHH:mm} and can be preceded by {@code >}, {@code >=}, {@code <},
+ * {@code <=} or {@code =} - a bare date matches the whole day (or minute).
+ *
+ * @see QueryPlanner
+ */
+public class Query {
+
+    /**
+     * Single condition of a query.
+     */
+    public static class Clause {
+
+        /**
+         * Property of a Node a clause looks at.
+         */
+        public enum Field {
+            TITLE(1), LANG(1), CONTENT(8), CREATED(1), EDITED(1);
+
+            private final int weight; // relative cost of checking the clause on a single Node
+
+            Field(int weight) {
+                this.weight = weight;
+            }
+
+            public int getWeight() {
+                return weight;
+            }
+        }
+
+        //region Fields
+        private final Field field; // checked property
+        private final String text; // clause as written, normalized
+        private final SearchTerm term; // title or content term, null for other fields
+        private final String lang; // normalized language, null for other fields
+        private final Date from; // start of a date range, inclusive, null if open
+        private final Date to; // end of a date range, exclusive, null if open
+        //endregion
+
+        //region Constructors
+        private Clause(Field field, String text, SearchTerm term, String lang, Date from, Date to) {
+            this.field = field;
+            this.text = text;
+            this.term = term;
+            this.lang = lang;
+            this.from = from;
+            this.to = to;
+        }
+        //endregion
+
+        //region Getters
+        public Field getField() {
+            return field;
+        }
+        public SearchTerm getTerm() {
+            return term;
+        }
+        public String getLang() {
+            return lang;
+        }
+        public Date getFrom() {
+            return from;
+        }
+        public Date getTo() {
+            return to;
+        }
+        //endregion
+
+        /**
+         * Checks the clause against a single Node.
+         * @param node checked Node
+         * @return true if the Node satisfies the clause
+         */
+        public boolean matches(Node node) {
+            switch (field) {
+                case TITLE:
+                    return node.matchesTitle(term);
+                case CONTENT:
+                    return node.matchesContent(term);
+                case LANG:
+                    return node instanceof Snippet && LanguageIndex.normalize(((Snippet) node).getLang()).equals(lang);
+                case CREATED:
+                    return inRange(node.getTimeCreated());
+                default:
+                    return inRange(node.getTimeEdited());
+            }
+        }
+
+        private boolean inRange(long millis) {
+            return (from == null || millis >= from.getTime()) && (to == null || millis < to.getTime());
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private final List<Clause> clauses; // all clauses, in the order they were written
+    private final String text; // query as parsed, normalized
+
+    //region Constructors
+    private Query(List<Clause> clauses) {
+        this.clauses = Collections.unmodifiableList(clauses);
+        StringBuilder text = new StringBuilder();
+        for (Clause clause : clauses)
+            text.append((text.length() > 0) ? " " : "").append(clause);
+        this.text = text.toString();
+    }
+    //endregion
+
+    //region Getters
+    public List<Clause> getClauses() {
+        return clauses;
+    }
+
+    /**
+     * Checks whether the query has a clause on the field, e.g. to decide which indexes are worth preparing.
+     * @param field checked field
+     * @return true if at least one clause looks at the field
+     */
+    public boolean uses(Clause.Field field) {
+        for (Clause clause : clauses)
+            if (clause.field == field)
+                return true;
+        return false;
+    }
+    //endregion
+
+    /**
+     * Checks all clauses against a single Node.
+     * @param node checked Node
+     * @return true if the Node satisfies every clause
+     */
+    public boolean matches(Node node) {
+        for (Clause clause : clauses)
+            if (!clause.matches(node))
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    //region Parsing
+    /**
+     * Parses a query.
+     * @param query query text
+     * @return parsed query
+     * @throws IllegalArgumentException if the query is empty or malformed, with a message fit for the user
+     */
+    public static Query parse(String query) {
+        ArrayList<Clause> clauses = new ArrayList<>();
+        for (String token : tokenize(query))
+            clauses.add(parseClause(token));
+        if (clauses.isEmpty())
+            throw new IllegalArgumentException("Empty query.");
+        return new Query(clauses);
+    }
+
+    /**
+     * Splits the query on spaces outside of double quotes. Quotes are kept, they're removed with the field name.
+     */
+    private static List<String> tokenize(String query) {
+        ArrayList<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        for (char c : query.toCharArray()) {
+            if (c == '"')
+                quoted = !quoted;
+            if (Character.isWhitespace(c) && !quoted) {
+                if (token.length() > 0)
+                    tokens.add(token.toString());
+                token.setLength(0);
+            } else {
+                token.append(c);
+            }
+        }
+        if (quoted)
+            throw new IllegalArgumentException("Missing closing quote in: " + token);
+        if (token.length() > 0)
+            tokens.add(token.toString());
+        return tokens;
+    }
+
+    private static Clause parseClause(String token) {
+        int colon = token.indexOf(':');
+        String name = (colon > 0 && token.charAt(0) != '"') ? token.substring(0, colon) : "";
+        Clause.Field field = Clause.Field.TITLE;
+        String value = token;
+        if (!name.isEmpty()) {
+            try {
+                field = Clause.Field.valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown field \"" + name + "\", expected one of: title, lang, "
+                        + "content, created, edited.");
+            }
+            value = token.substring(colon + 1);
+        }
+        value = unquote(value);
+        if (value.isEmpty())
+            throw new IllegalArgumentException("Missing value in: " + token);
+
+        String text = field.toString().toLowerCase() + ":";
+        switch (field) {
+            case TITLE:
+            case CONTENT:
+                return new Clause(field, text + quote(value), new SearchTerm(value), null, null, null);
+            case LANG:
+                String lang = LanguageIndex.normalize(value);
+                return new Clause(field, text + quote(lang), null, lang, null, null);
+            default:
+                return parseDateClause(field, text, value);
+        }
+    }
+
+    private static Clause parseDateClause(Clause.Field field, String text, String value) {
+        String operator = value.startsWith(">=") || value.startsWith("<=") ? value.substring(0, 2)
+                : value.startsWith(">") || value.startsWith("<") || value.startsWith("=") ? value.substring(0, 1)
+                : "";
+        String date_text = value.substring(operator.length()).toUpperCase();
+
+        // the unit is the precision of the date - a bare date means the whole day
+        boolean has_time = date_text.contains("T");
+        SimpleDateFormat format = new SimpleDateFormat(has_time ? "yyyy-MM-dd'T'HH:mm" : "yyyy-MM-dd");
+        format.setLenient(false);
+        Date start;
+        try {
+            start = format.parse(date_text);
+        } catch (ParseException ex) {
+            throw new IllegalArgumentException("Bad date \"" + date_text + "\", expected yyyy-MM-dd or "
+                    + "yyyy-MM-ddTHH:mm.");
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(start);
+        calendar.add(has_time ? Calendar.MINUTE : Calendar.DAY_OF_MONTH, 1);
+        Date end = calendar.getTime();
+
+        text += operator + date_text;
+        switch (operator) {
+            case ">":
+                return new Clause(field, text, null, null, end, null);
+            case ">=":
+                return new Clause(field, text, null, null, start, null);
+            case "<":
+                return new Clause(field, text, null, null, null, start);
+            case "<=":
+                return new Clause(field, text, null, null, null, end);
+            default:
+                return new Clause(field, text, null, null, start, end);
+        }
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+            return value.substring(1, value.length() - 1);
+        return value;
+    }
+
+    private static String quote(String value) {
+        return value.contains(" ") ? "\"" + value + "\"" : value;
+    }
+    //endregion
+}
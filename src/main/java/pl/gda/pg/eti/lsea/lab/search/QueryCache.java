@@ -0,0 +1,219 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import pl.gda.pg.eti.lsea.lab.Node;
+
+/**
+ * Least-recently-used cache of search results, bounded both by the number of entries and by their estimated memory
+ * footprint. Every entry remembers the modification count of the structure it was computed at; an entry is only
+ * served while the structure is still at that count, so any mutation invalidates all cached results at once without
+ * touching them. Hit, miss, invalidation and eviction counts are kept for sizing the cache.
+ *
+ * Thread-safe.
+ */
+public class QueryCache {
+
+    /**
+     * Default maximum number of cached queries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    /**
+     * Default maximum estimated size of all cached results, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Snapshot of cache statistics.
+     */
+    public static class Statistics {
+        private final long hits, misses, invalidations, evictions, bytes;
+        private final int entries;
+
+        Statistics(long hits, long misses, long invalidations, long evictions, int entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+        /**
+         * @return number of lookups that had to run the search, stale entries included
+         */
+        public long getMisses() {
+            return misses;
+        }
+        /**
+         * @return number of entries dropped because the structure changed since they were cached
+         */
+        public long getInvalidations() {
+            return invalidations;
+        }
+        /**
+         * @return number of entries dropped to stay within the size limits
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+        public int getEntries() {
+            return entries;
+        }
+        /**
+         * @return estimated memory taken by the cached results
+         */
+        public long getBytes() {
+            return bytes;
+        }
+        public double getHitRatio() {
+            return (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hit_ratio=%.3f invalidations=%d evictions=%d entries=%d bytes=%d",
+                    hits, misses, getHitRatio(), invalidations, evictions, entries, bytes);
+        }
+    }
+
+    /**
+     * Query - kind of search and search term.
+     */
+    private static class Key {
+        private final String kind;
+        private final String term;
+
+        Key(String kind, String term) {
+            this.kind = kind;
+            this.term = term;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return kind.equals(other.kind) && term.equals(other.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, term);
+        }
+    }
+
+    /**
+     * Cached results together with the modification count they're valid for.
+     */
+    private static class Entry {
+        private final ArrayList<Node> results;
+        private final long version;
+        private final long bytes;
+
+        Entry(Key key, ArrayList<Node> results, long version) {
+            this.results = results;
+            this.version = version;
+            // object headers, the key's chars and one reference per result
+            this.bytes = 96 + 2L * (key.kind.length() + key.term.length()) + 8L * results.size();
+        }
+    }
+
+    //region Fields
+    private final int max_entries; // maximum number of cached queries
+    private final long max_bytes; // maximum estimated size of cached results
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // in access order
+    private long bytes = 0; // estimated size of cached results
+    private long hits = 0, misses = 0, invalidations = 0, evictions = 0;
+    //endregion
+
+    //region Constructors
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+    public QueryCache(int max_entries, long max_bytes) {
+        this.max_entries = max_entries;
+        this.max_bytes = max_bytes;
+    }
+    //endregion
+
+    /**
+     * Returns cached results of a query if they're still valid, otherwise runs the search and caches its results.
+     * The search runs outside of the cache's lock, so slow searches don't block lookups of other queries.
+     * @param kind kind of search, e.g. "title"
+     * @param term search term
+     * @param version current modification count of the searched structure
+     * @param search runs the search
+     * @return copy of the results
+     */
+    public ArrayList<Node> get(String kind, String term, long version, Supplier<ArrayList<Node>> search) {
+        Key key = new Key(kind, term);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version) {
+                hits++;
+                return new ArrayList<>(entry.results);
+            }
+            if (entry != null) {
+                remove(key, entry);
+                invalidations++;
+            }
+            misses++;
+        }
+
+        ArrayList<Node> results = search.get();
+        put(key, new Entry(key, new ArrayList<>(results), version));
+        return results;
+    }
+
+    /**
+     * Drops all cached results. Statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return snapshot of the cache statistics
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hits, misses, invalidations, evictions, entries.size(), bytes);
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        if (entry.bytes > max_bytes || max_entries <= 0)
+            return; // would evict everything else, not worth caching
+        Entry old = entries.get(key);
+        if (old != null) {
+            if (old.version >= entry.version)
+                return; // a newer result got in while this one was computed
+            remove(key, old);
+        }
+        entries.put(key, entry);
+        bytes += entry.bytes;
+
+        // evict least recently used entries
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > max_entries || bytes > max_bytes) && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            if (eldest.getValue() == entry)
+                continue;
+            bytes -= eldest.getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(Key key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+    }
+}
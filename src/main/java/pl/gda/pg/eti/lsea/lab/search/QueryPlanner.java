@@ -0,0 +1,222 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import pl.gda.pg.eti.lsea.lab.Node;
+
+/**
+ * Cost-based planner for {@link Query}. Every clause that an available index can answer is an access path, and a full
+ * scan of the structure is always one too. The planner estimates how many candidates each path produces, picks the
+ * cheapest one and checks the remaining clauses on its candidates only.
+ *
+ * The cost of a path is its estimated number of candidates times the cost of producing one (see
+ * {@link Query.Clause.Field#getWeight()}) plus the cost of checking the remaining clauses on it. Indexes are optional -
+ * a planner without any always scans.
+ *
+ * Not thread-safe - the indexes must not change while a plan is made and executed, see
+ * {@link BackgroundIndexer#read(Supplier)}.
+ */
+public class QueryPlanner {
+
+    /**
+     * One way of finding candidates for a query.
+     */
+    public static class AccessPath {
+        private final String name; // name of the index, shown in explain output
+        private final Query.Clause clause; // clause answered by the path, null for a full scan
+        private final long estimate; // estimated number of candidates
+        private final long cost; // estimated cost of the whole query using this path
+        private final Supplier<Iterable<Node>> fetch; // produces the candidates
+        private final boolean ordered; // true if candidates come in structure order
+
+        AccessPath(String name, Query.Clause clause, long estimate, long cost, Supplier<Iterable<Node>> fetch,
+                   boolean ordered) {
+            this.name = name;
+            this.clause = clause;
+            this.estimate = estimate;
+            this.cost = cost;
+            this.fetch = fetch;
+            this.ordered = ordered;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public long getEstimate() {
+            return estimate;
+        }
+        public long getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return name + ((clause != null) ? " on " + clause : "");
+        }
+    }
+
+    /**
+     * Chosen way of answering a query, along with the paths that were considered.
+     */
+    public static class Plan {
+        private final Query query; // planned query
+        private final AccessPath chosen; // cheapest path
+        private final List<AccessPath> considered; // all paths, cheapest first
+        private final List<Query.Clause> residual; // clauses checked on candidates of the chosen path
+
+        Plan(Query query, List<AccessPath> considered) {
+            this.query = query;
+            this.considered = Collections.unmodifiableList(considered);
+            this.chosen = considered.get(0);
+            this.residual = query.getClauses().stream().filter(clause -> clause != chosen.clause)
+                    .collect(Collectors.toList());
+        }
+
+        public AccessPath getChosen() {
+            return chosen;
+        }
+        public List<AccessPath> getConsidered() {
+            return considered;
+        }
+        public long getEstimatedCost() {
+            return chosen.cost;
+        }
+
+        /**
+         * Runs the plan.
+         * @return ArrayList of Nodes matching every clause, in structure order
+         */
+        public ArrayList<Node> execute() {
+            ArrayList<Node> found = new ArrayList<>();
+            outer:
+            for (Node candidate : chosen.fetch.get()) {
+                for (Query.Clause clause : residual)
+                    if (!clause.matches(candidate))
+                        continue outer;
+                found.add(candidate);
+            }
+            return chosen.ordered ? found : TreeOrder.sort(found);
+        }
+
+        /**
+         * Describes the plan - every considered access path with its estimates, and what is checked afterwards.
+         * @return multi-line description
+         */
+        public String explain() {
+            StringBuilder out = new StringBuilder("Query: " + query + "\n");
+            out.append("Access paths, cheapest first:\n");
+            for (AccessPath path : considered)
+                out.append(String.format("  %s%-40s ~%d candidates, cost %d%n", (path == chosen) ? "* " : "  ",
+                        path, path.estimate, path.cost));
+            out.append("Plan: ").append(chosen);
+            if (!residual.isEmpty())
+                out.append(", then check ").append(residual.stream().map(Query.Clause::toString)
+                        .collect(Collectors.joining(" and ")));
+            if (!chosen.ordered)
+                out.append(", then sort into structure order");
+            out.append("\nEstimated cost: ").append(chosen.cost);
+            return out.toString();
+        }
+
+        @Override
+        public String toString() {
+            return explain();
+        }
+    }
+
+    //region Fields
+    private final Node root; // root of the queried structure
+    private final TitleIndex title_index; // may be null
+    private final LanguageIndex language_index; // may be null
+    private final DateIndex date_index; // may be null
+    private final TrigramIndex content_index; // may be null
+    //endregion
+
+    //region Constructors
+    /**
+     * Creates a planner over a structure and whichever of its indexes are available.
+     * @param root root of the queried structure
+     * @param title_index title index, null if not available
+     * @param language_index language facets, null if not available
+     * @param date_index date index, null if not available
+     * @param content_index trigram index over contents, null if not available
+     */
+    public QueryPlanner(Node root, TitleIndex title_index, LanguageIndex language_index, DateIndex date_index,
+                        TrigramIndex content_index) {
+        this.root = root;
+        this.title_index = title_index;
+        this.language_index = language_index;
+        this.date_index = date_index;
+        this.content_index = content_index;
+    }
+    //endregion
+
+    /**
+     * Estimates every available access path and picks the cheapest.
+     * @param query parsed query
+     * @return plan, ready to be executed or explained
+     */
+    public Plan plan(Query query) {
+        ArrayList<AccessPath> paths = new ArrayList<>();
+        int total_weight = 0;
+        for (Query.Clause clause : query.getClauses())
+            total_weight += clause.getField().getWeight();
+
+        long size = root.getSubtreeSize();
+        paths.add(new AccessPath("full scan", null, size, size * (1 + total_weight),
+                () -> root.stream()::iterator, true));
+
+        for (Query.Clause clause : query.getClauses()) {
+            int residual_weight = total_weight - clause.getField().getWeight();
+            AccessPath path = accessPath(clause, residual_weight);
+            if (path != null)
+                paths.add(path);
+        }
+
+        // cheapest first, full scan wins ties as it needs no sorting
+        paths.sort((a, b) -> Long.compare(a.cost, b.cost));
+        return new Plan(query, paths);
+    }
+
+    /**
+     * Builds the access path answering a single clause through an index, null if there is no suitable index.
+     */
+    private AccessPath accessPath(Query.Clause clause, int residual_weight) {
+        long estimate;
+        switch (clause.getField()) {
+            case TITLE:
+                if (title_index == null)
+                    return null;
+                estimate = title_index.estimate(clause.getTerm());
+                return new AccessPath("title index", clause, estimate, estimate * (1 + residual_weight),
+                        () -> title_index.search(clause.getTerm()), true);
+            case LANG:
+                if (language_index == null)
+                    return null;
+                estimate = language_index.count(clause.getLang());
+                return new AccessPath("language facet", clause, estimate, estimate * (1 + residual_weight),
+                        () -> language_index.search(clause.getLang()), true);
+            case CONTENT:
+                if (content_index == null || !content_index.isSelective(clause.getTerm().getFolded()))
+                    return null;
+                // candidates are confirmed by the index itself, at the cost of a content check each
+                estimate = content_index.estimate(clause.getTerm());
+                return new AccessPath("trigram index", clause, estimate,
+                        estimate * (clause.getField().getWeight() + residual_weight),
+                        () -> content_index.search(clause.getTerm()), true);
+            default:
+                if (date_index == null)
+                    return null;
+                DateIndex.Field field = (clause.getField() == Query.Clause.Field.CREATED)
+                        ? DateIndex.Field.CREATED : DateIndex.Field.EDITED;
+                estimate = date_index.estimate(field, clause.getFrom(), clause.getTo());
+                // sorting candidates back into structure order costs about log n per candidate
+                long sort_cost = estimate * (64 - Long.numberOfLeadingZeros(Math.max(1, estimate)));
+                return new AccessPath("date index", clause, estimate, estimate * (1 + residual_weight) + sort_cost,
+                        () -> date_index.search(field, clause.getFrom(), clause.getTo()), false);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+
+/**
+ * Index over a folder structure, kept up to date by the owner of the structure (see
+ * {@link pl.gda.pg.eti.lsea.lab.FolderTree}) as Nodes are inserted, removed and edited.
+ *
+ * Indexes only handle single Nodes, the structures are walked by {@link #add(Node)} and {@link #remove(Node)}. Both
+ * per-Node operations must be idempotent - {@link BackgroundIndexer} indexes an inserted Folder as it is when the
+ * insert is applied, so Nodes inserted into it in the meantime are added once more by their own inserts. It also walks
+ * large structures itself, a chunk at a time, so indexes must do all their work in the per-Node operations.
+ */
+public interface StructureIndex {
+
+    /**
+     * Indexes the passed Node and every Node within it, as they are now.
+     * @param node root of the added structure
+     */
+    default void add(Node node) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node current = stack.pop();
+            addNode(current);
+            if (current instanceof Folder)
+                for (Node child : ((Folder) current).getChildren())
+                    stack.push(child);
+        }
+    }
+
+    /**
+     * Removes the passed Node and every Node within it from the index.
+     * @param node root of the removed structure
+     */
+    default void remove(Node node) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node current = stack.pop();
+            removeNode(current);
+            if (current instanceof Folder)
+                for (Node child : ((Folder) current).getChildren())
+                    stack.push(child);
+        }
+    }
+
+    /**
+     * Indexes a single Node, without the Nodes within it. A Node that is already indexed is re-indexed in place,
+     * never indexed twice. Indexes not interested in the kind of Node ignore the call.
+     * @param node added Node
+     */
+    void addNode(Node node);
+
+    /**
+     * Removes a single Node, without the Nodes within it. Does nothing if the Node isn't indexed.
+     * @param node removed Node
+     */
+    void removeNode(Node node);
+
+    /**
+     * Re-indexes a single Node after one of its properties changed. Indexes not interested in the property ignore
+     * the call.
+     * @param node changed Node
+     * @param property changed property
+     */
+    void update(Node node, NodeEvent.Property property);
+
+    /**
+     * Removes all Nodes from the index.
+     */
+    void clear();
+}
@@ -0,0 +1,258 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
+
+/**
+ * Case-folded index over Node titles, folded with {@link SearchTerm#fold(String)}. Every distinct folded title keeps
+ * a postings list of Nodes carrying it, and all suffixes of the distinct titles are kept in a sorted set (a dynamic
+ * suffix array). Suffixes are references into the titles - a title and an offset - so the index grows linearly with
+ * the length of the titles. A prefix query is a range scan over the titles, a substring query a range scan over the
+ * suffixes - neither touches Nodes whose titles don't match. Substring results are the same as those of
+ * {@link Folder#searchTitle(String)}, including their order.
+ *
+ * Not thread-safe - meant to be updated by the owner of the structure, e.g. {@link pl.gda.pg.eti.lsea.lab.FolderTree}.
+ */
+public class TitleIndex implements StructureIndex {
+
+    /**
+     * Suffix of a distinct folded title, ordered by its text. Suffixes with the same text are ordered by offset, so a
+     * suffix at offset 0 (e.g. a probe built from a search term) comes before every other suffix with its text.
+     */
+    private static final class Suffix implements Comparable<Suffix> {
+        private final String title; // folded title
+        private final int offset; // index of the first char of the suffix
+
+        Suffix(String title, int offset) {
+            this.title = title;
+            this.offset = offset;
+        }
+
+        boolean startsWith(String prefix) {
+            return title.startsWith(prefix, offset);
+        }
+
+        @Override
+        public int compareTo(Suffix other) {
+            int length = title.length() - offset;
+            int other_length = other.title.length() - other.offset;
+            for (int i = 0; i < Math.min(length, other_length); i++) {
+                int diff = title.charAt(offset + i) - other.title.charAt(other.offset + i);
+                if (diff != 0)
+                    return diff;
+            }
+            if (length != other_length)
+                return length - other_length;
+            return (offset != other.offset) ? offset - other.offset : title.compareTo(other.title);
+        }
+    }
+
+    //region Fields
+    private final TreeMap<String, Set<Node>> titles = new TreeMap<>(); // folded title -> Nodes with that title
+    private final TreeSet<Suffix> suffixes = new TreeSet<>(); // suffixes of all distinct folded titles
+    private final HashMap<Node, String> keys = new HashMap<>(); // Node -> folded title it's indexed under
+    private final HashMap<Integer, Integer> char_counts = new HashMap<>(); // char -> Nodes with it in their title
+    private final HashMap<Integer, Integer> pair_counts = new HashMap<>(); // two chars -> Nodes with them in a row
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of indexed Nodes
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return number of distinct folded titles
+     */
+    public int getTitleCount() {
+        return titles.size();
+    }
+
+    public boolean contains(Node node) {
+        return keys.containsKey(node);
+    }
+    //endregion
+
+    //region Mutators
+    @Override
+    public void addNode(Node node) {
+        update(node);
+    }
+
+    @Override
+    public void removeNode(Node node) {
+        String key = keys.remove(node);
+        if (key != null)
+            removePosting(key, node);
+    }
+
+    /**
+     * {@inheritDoc} Only renamed Nodes are re-indexed.
+     */
+    @Override
+    public void update(Node node, NodeEvent.Property property) {
+        if (property == NodeEvent.Property.TITLE)
+            update(node);
+    }
+
+    /**
+     * Re-indexes the current title of a single Node, e.g. after a rename. Adds the Node if it wasn't indexed yet.
+     * @param node renamed Node
+     */
+    public void update(Node node) {
+        String key = node.getFoldedTitle();
+        String old_key = keys.put(node, key);
+        if (key.equals(old_key))
+            return;
+        if (old_key != null)
+            removePosting(old_key, node);
+
+        Set<Node> posting = titles.get(key);
+        if (posting == null) {
+            posting = new LinkedHashSet<>();
+            titles.put(key, posting);
+            for (int i = 0; i < key.length(); i++)
+                suffixes.add(new Suffix(key, i));
+        }
+        if (posting.add(node))
+            countGrams(key, 1);
+    }
+
+    /**
+     * Removes all Nodes from the index.
+     */
+    @Override
+    public void clear() {
+        titles.clear();
+        suffixes.clear();
+        keys.clear();
+        char_counts.clear();
+        pair_counts.clear();
+    }
+
+    private void removePosting(String key, Node node) {
+        Set<Node> posting = titles.get(key);
+        if (posting == null || !posting.remove(node))
+            return;
+        countGrams(key, -1);
+        if (!posting.isEmpty())
+            return;
+
+        // last Node with this title is gone, forget the title's suffixes
+        titles.remove(key);
+        for (int i = 0; i < key.length(); i++)
+            suffixes.remove(new Suffix(key, i));
+    }
+
+    /**
+     * Adds the difference to the counts of every distinct char and pair of chars in a row of the title.
+     */
+    private void countGrams(String key, int delta) {
+        int[] chars = new int[key.length()];
+        int[] pairs = new int[Math.max(0, key.length() - 1)];
+        for (int i = 0; i < key.length(); i++) {
+            chars[i] = key.charAt(i);
+            if (i > 0)
+                pairs[i - 1] = key.charAt(i - 1) << 16 | key.charAt(i);
+        }
+        addCounts(char_counts, chars, delta);
+        addCounts(pair_counts, pairs, delta);
+    }
+
+    private static void addCounts(HashMap<Integer, Integer> counts, int[] grams, int delta) {
+        Arrays.sort(grams);
+        for (int i = 0; i < grams.length; i++)
+            if (i == 0 || grams[i] != grams[i - 1])
+                counts.merge(grams[i], delta, (a, b) -> (a + b != 0) ? a + b : null);
+    }
+    //endregion
+
+    //region Search
+    /**
+     * Finds Nodes whose title contains the term. Non-case-sensitive. Equivalent to
+     * {@link Folder#searchTitle(String)} called on the root of the indexed structure.
+     * @param term String to be searched for
+     * @return ArrayList of matching Nodes in structure order
+     */
+    public ArrayList<Node> search(String term) {
+        return search(new SearchTerm(term));
+    }
+    public ArrayList<Node> search(SearchTerm term) {
+        String needle = term.getFolded();
+        ArrayList<Node> found = new ArrayList<>();
+
+        if (needle.isEmpty()) {
+            found.addAll(keys.keySet());
+            return TreeOrder.sort(found);
+        }
+
+        for (String key : matchingTitles(needle))
+            found.addAll(titles.get(key));
+
+        return TreeOrder.sort(found);
+    }
+
+    /**
+     * Estimates the number of Nodes whose title contains the term, without looking at any title - the number of
+     * Nodes whose title has the rarest char, or pair of chars in a row, of the term.
+     * @param term precompiled search term
+     * @return upper bound on the number of matching Nodes
+     */
+    public int estimate(SearchTerm term) {
+        String needle = term.getFolded();
+        if (needle.isEmpty())
+            return keys.size();
+        if (needle.length() == 1)
+            return char_counts.getOrDefault((int) needle.charAt(0), 0);
+
+        int estimate = keys.size();
+        for (int i = 1; i < needle.length(); i++)
+            estimate = Math.min(estimate, pair_counts.getOrDefault(needle.charAt(i - 1) << 16 | needle.charAt(i), 0));
+        return estimate;
+    }
+
+    /**
+     * Finds distinct folded titles containing the needle - a range scan over suffixes starting with it.
+     */
+    private Set<String> matchingTitles(String needle) {
+        Set<String> matching = new HashSet<>();
+        for (Suffix suffix : suffixes.tailSet(new Suffix(needle, 0), true)) {
+            if (!suffix.startsWith(needle))
+                break;
+            matching.add(suffix.title);
+        }
+        return matching;
+    }
+
+    /**
+     * Finds Nodes whose title starts with the prefix. Non-case-sensitive.
+     * @param prefix beginning of searched titles
+     * @return ArrayList of matching Nodes in structure order
+     */
+    public ArrayList<Node> searchPrefix(String prefix) {
+        String needle = SearchTerm.fold(prefix);
+        ArrayList<Node> found = new ArrayList<>();
+
+        for (Map.Entry<String, Set<Node>> entry : titles.tailMap(needle, true).entrySet()) {
+            if (!entry.getKey().startsWith(needle))
+                break;
+            found.addAll(entry.getValue());
+        }
+
+        return TreeOrder.sort(found);
+    }
+    //endregion
+}
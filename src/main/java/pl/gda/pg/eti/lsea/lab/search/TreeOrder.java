@@ -0,0 +1,59 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+
+/**
+ * Puts Nodes found through an index back into the order a recursive search over the structure would have found them
+ * in - depth-first, parents before children, siblings in list order. Keeps indexed searches interchangeable with
+ * {@link Node#searchTitle(String)} and {@link Node#searchContent(String)}.
+ */
+public final class TreeOrder {
+
+    private TreeOrder() {}
+
+    /**
+     * Returns the passed Nodes as a list sorted in pre-order. Every Node's position is resolved once, so the cost
+     * depends on the number of Nodes passed, not on the size of the structure.
+     * @param nodes Nodes to sort
+     * @return new list of Nodes in pre-order
+     */
+    public static ArrayList<Node> sort(Collection<? extends Node> nodes) {
+        ArrayList<Node> sorted = new ArrayList<>(nodes);
+        if (sorted.size() < 2)
+            return sorted;
+
+        Map<Node, int[]> positions = new HashMap<>(sorted.size() * 2);
+        for (Node node : sorted)
+            positions.put(node, position(node));
+
+        sorted.sort(Comparator.comparing(positions::get, Arrays::compare));
+        return sorted;
+    }
+
+    /**
+     * Finds the position of a Node within its structure as a list of child indices, starting from the root.
+     * @param node Node to locate
+     * @return child indices on the way from the root down to the Node
+     */
+    public static int[] position(Node node) {
+        int depth = 0;
+        for (Node n = node; n.getParent() != null; n = n.getParent())
+            depth++;
+
+        int[] position = new int[depth];
+        Node n = node;
+        for (int i = depth - 1; i >= 0; i--) {
+            Folder parent = (Folder) n.getParent();
+            position[i] = parent.indexOf(n);
+            n = parent;
+        }
+        return position;
+    }
+}
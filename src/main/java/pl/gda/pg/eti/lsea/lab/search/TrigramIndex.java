@@ -0,0 +1,259 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.NodeEvent;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
+import pl.gda.pg.eti.lsea.lab.Snippet;
+
+/**
+ * Inverted index mapping every trigram (three consecutive characters) of case-folded Snippet contents to the Snippets
+ * containing it. A content search only confirms the Snippets that contain all trigrams of the search term instead of
+ * scanning every Snippet in the structure. Results are the same as those of {@link Folder#searchContent(String)},
+ * including their order. Both fold case with {@link SearchTerm}, the same way as {@link String#toLowerCase()}.
+ *
+ * Not thread-safe - meant to be updated by the owner of the structure, e.g. {@link pl.gda.pg.eti.lsea.lab.FolderTree}.
+ */
+public class TrigramIndex implements StructureIndex {
+
+    //region Fields
+    private final HashMap<Long, PostingList> postings = new HashMap<>(); // trigram -> ids of Snippets containing it
+    private final HashMap<Snippet, Integer> ids = new HashMap<>(); // Snippet -> id
+    private final ArrayList<Snippet> snippets = new ArrayList<>(); // id -> Snippet, null if the id is free
+    private final ArrayList<long[]> snippet_grams = new ArrayList<>(); // id -> indexed trigrams, needed for removal
+    private final Deque<Integer> free_ids = new ArrayDeque<>(); // ids of removed Snippets, reused first
+    //endregion
+
+    //region Getters
+    /**
+     * @return number of indexed Snippets
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return number of distinct trigrams in the index
+     */
+    public int getTrigramCount() {
+        return postings.size();
+    }
+
+    public boolean contains(Snippet snippet) {
+        return ids.containsKey(snippet);
+    }
+
+    /**
+     * Estimates the number of Snippets a search for the term would have to confirm, without intersecting anything -
+     * the length of the shortest postings list among the term's trigrams.
+     * @param term precompiled search term
+     * @return upper bound on the number of candidates
+     */
+    public int estimate(SearchTerm term) {
+        long[] grams = trigrams(term.getFolded());
+        if (grams.length == 0)
+            return ids.size();
+
+        int shortest = ids.size();
+        for (long gram : grams) {
+            PostingList list = postings.get(gram);
+            if (list == null)
+                return 0;
+            shortest = Math.min(shortest, list.size());
+        }
+        return shortest;
+    }
+
+    /**
+     * Checks whether the index can narrow down a search for the term. Terms shorter than three characters have no
+     * trigrams, so searching for them means confirming every indexed Snippet.
+     * @param term search term
+     * @return true if the term contains at least one trigram
+     */
+    public boolean isSelective(String term) {
+        return term.length() >= 3;
+    }
+    //endregion
+
+    //region Mutators
+    @Override
+    public void addNode(Node node) {
+        if (node instanceof Snippet)
+            update((Snippet) node);
+    }
+
+    @Override
+    public void removeNode(Node node) {
+        if (node instanceof Snippet)
+            removeSnippet((Snippet) node);
+    }
+
+    /**
+     * {@inheritDoc} Only edited Snippet contents are re-indexed.
+     */
+    @Override
+    public void update(Node node, NodeEvent.Property property) {
+        if (property == NodeEvent.Property.CONTENT && node instanceof Snippet)
+            update((Snippet) node);
+    }
+
+    /**
+     * Re-indexes the current contents of a Snippet. Adds the Snippet to the index if it wasn't indexed yet. Only the
+     * trigrams that actually changed are touched.
+     * @param snippet edited Snippet
+     */
+    public void update(Snippet snippet) {
+        long[] grams = trigrams(snippet.get());
+        Integer id = ids.get(snippet);
+
+        if (id == null) {
+            id = free_ids.isEmpty() ? snippets.size() : free_ids.pop();
+            if (id == snippets.size()) {
+                snippets.add(snippet);
+                snippet_grams.add(grams);
+            } else {
+                snippets.set(id, snippet);
+                snippet_grams.set(id, grams);
+            }
+            ids.put(snippet, id);
+            for (long gram : grams)
+                postings.computeIfAbsent(gram, k -> new PostingList()).add(id);
+            return;
+        }
+
+        // walk both sorted trigram arrays and apply only the difference
+        long[] old_grams = snippet_grams.get(id);
+        int i = 0, j = 0;
+        while (i < old_grams.length || j < grams.length) {
+            if (j == grams.length || (i < old_grams.length && old_grams[i] < grams[j])) {
+                removePosting(old_grams[i++], id);
+            } else if (i == old_grams.length || grams[j] < old_grams[i]) {
+                postings.computeIfAbsent(grams[j++], k -> new PostingList()).add(id);
+            } else {
+                i++;
+                j++;
+            }
+        }
+        snippet_grams.set(id, grams);
+    }
+
+    /**
+     * Removes all Snippets from the index.
+     */
+    @Override
+    public void clear() {
+        postings.clear();
+        ids.clear();
+        snippets.clear();
+        snippet_grams.clear();
+        free_ids.clear();
+    }
+
+    private void removeSnippet(Snippet snippet) {
+        Integer id = ids.remove(snippet);
+        if (id == null)
+            return;
+        for (long gram : snippet_grams.get(id))
+            removePosting(gram, id);
+        snippets.set(id, null);
+        snippet_grams.set(id, null);
+        free_ids.push(id);
+    }
+
+    private void removePosting(long gram, int id) {
+        PostingList list = postings.get(gram);
+        if (list != null && list.remove(id) && list.isEmpty())
+            postings.remove(gram);
+    }
+    //endregion
+
+    /**
+     * Non-case-sensitive search on contents of all indexed Snippets. Equivalent to
+     * {@link Folder#searchContent(String)} called on the root of the indexed structure.
+     * @param term search term to be compared against snippet contents
+     * @return ArrayList of matching Snippets in structure order
+     */
+    public ArrayList<Node> search(String term) {
+        return search(new SearchTerm(term));
+    }
+    public ArrayList<Node> search(SearchTerm term) {
+        ArrayList<Node> found = new ArrayList<>();
+
+        for (Snippet candidate : candidates(term.getFolded()))
+            if (candidate.matchesContent(term))
+                found.add(candidate);
+
+        return TreeOrder.sort(found);
+    }
+
+    /**
+     * Finds Snippets containing all trigrams of an already folded term. Terms shorter than three characters have
+     * no trigrams, so every indexed Snippet is a candidate.
+     * @param needle folded search term
+     * @return Snippets that may contain the term
+     */
+    private ArrayList<Snippet> candidates(String needle) {
+        ArrayList<Snippet> out = new ArrayList<>();
+        long[] grams = trigrams(needle);
+
+        if (grams.length == 0) {
+            for (Snippet snippet : snippets)
+                if (snippet != null)
+                    out.add(snippet);
+            return out;
+        }
+
+        // intersect postings, starting from the shortest list
+        PostingList[] lists = new PostingList[grams.length];
+        for (int i = 0; i < grams.length; i++) {
+            lists[i] = postings.get(grams[i]);
+            if (lists[i] == null)
+                return out;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+
+        outer:
+        for (int k = 0; k < lists[0].size(); k++) {
+            int id = lists[0].get(k);
+            for (int l = 1; l < lists.length; l++)
+                if (!lists[l].contains(id))
+                    continue outer;
+            out.add(snippets.get(id));
+        }
+        return out;
+    }
+
+    /**
+     * Extracts all distinct trigrams of a String, case-folded with {@link SearchTerm#fold(char)} on the fly - or
+     * folded as a whole first, for the few texts whose lowercase form isn't the same. Each trigram is packed into a
+     * long, 16 bits per character.
+     * @param text text to split
+     * @return sorted array of distinct trigrams
+     */
+    static long[] trigrams(String text) {
+        if (!SearchTerm.foldsPerChar(text))
+            text = SearchTerm.fold(text);
+        int count = text.length() - 2;
+        if (count <= 0)
+            return new long[0];
+
+        long[] grams = new long[count];
+        for (int i = 0; i < count; i++)
+            grams[i] = ((long) SearchTerm.fold(text.charAt(i)) << 32)
+                    | ((long) SearchTerm.fold(text.charAt(i + 1)) << 16)
+                    | SearchTerm.fold(text.charAt(i + 2));
+        Arrays.sort(grams);
+
+        // remove duplicates
+        int distinct = 1;
+        for (int i = 1; i < count; i++)
+            if (grams[i] != grams[distinct - 1])
+                grams[distinct++] = grams[i];
+        return Arrays.copyOf(grams, distinct);
+    }
+}
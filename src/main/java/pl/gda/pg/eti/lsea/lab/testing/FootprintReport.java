@@ -0,0 +1,149 @@
+package pl.gda.pg.eti.lsea.lab.testing;
+
+import java.lang.ref.Reference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Random;
+import pl.gda.pg.eti.lsea.lab.CompactTree;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+
+/**
+ * Heap footprint of the same structure kept as Folder and Snippet objects and as a {@link CompactTree}. The heap is
+ * measured before and after building each of them, so the numbers include everything the structures allocate. Can
+ * be written out as CSV or JSON.
+ */
+public class FootprintReport {
+
+    static final int WIDTH = 16; // children of every generated Folder, the last one excepted
+    static final double FOLDER_RATIO = 0.1; // share of generated Nodes that are Folders
+
+    //region Fields
+    private final int nodes; // number of Nodes in the structure
+    private final long object_bytes; // heap taken by the object structure
+    private final long compact_bytes; // heap taken by the compact tree
+    private final long estimated_bytes; // footprint of the compact tree as estimated by the tree itself
+    //endregion
+
+    //region Constructors
+    FootprintReport(int nodes, long object_bytes, long compact_bytes, long estimated_bytes) {
+        this.nodes = nodes;
+        this.object_bytes = object_bytes;
+        this.compact_bytes = compact_bytes;
+        this.estimated_bytes = estimated_bytes;
+    }
+    //endregion
+
+    //region Getters
+    public int getNodes() {
+        return nodes;
+    }
+    public long getObjectBytes() {
+        return object_bytes;
+    }
+    public long getCompactBytes() {
+        return compact_bytes;
+    }
+    public long getEstimatedBytes() {
+        return estimated_bytes;
+    }
+
+    /**
+     * @return how many times smaller the compact tree is
+     */
+    public double getRatio() {
+        return (double) object_bytes / Math.max(1, compact_bytes);
+    }
+    //endregion
+
+    /**
+     * Builds a random structure of the given size, then a compact copy of it, and measures both.
+     * @param nodes number of Nodes in the structure
+     * @return measured footprints
+     */
+    public static FootprintReport measure(int nodes) {
+        long before = usedMemory();
+        Folder root = generate(nodes);
+        long objects = usedMemory();
+        CompactTree tree = CompactTree.of(root);
+        long compact = usedMemory();
+        FootprintReport report = new FootprintReport(root.getSubtreeSize(), objects - before, compact - objects,
+                tree.getFootprint());
+        Reference.reachabilityFence(root);
+        Reference.reachabilityFence(tree);
+        return report;
+    }
+
+    /**
+     * Generates a structure of exactly the given size, breadth-first, with titles from {@link RandomStructure}.
+     * @param nodes number of Nodes, the root included
+     * @return root Folder
+     */
+    public static Folder generate(int nodes) {
+        Random rand = new Random(nodes);
+        Folder root = RandomStructure.generate_folder();
+        Deque<Folder> folders = new ArrayDeque<>();
+        folders.add(root);
+        int count = 1;
+        while (count < nodes && !folders.isEmpty()) {
+            Folder folder = folders.poll();
+            for (int i = 0; i < WIDTH && count < nodes; i++, count++) {
+                // the last Folder in the queue always gets a sub-folder, so the structure never runs out of them
+                Node child = (rand.nextDouble() < FOLDER_RATIO || (folders.isEmpty() && i == WIDTH - 1))
+                        ? RandomStructure.generate_folder() : RandomStructure.generate_snippet();
+                folder.addChild(child);
+                if (child instanceof Folder)
+                    folders.add((Folder) child);
+            }
+        }
+        return root;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return the report as CSV, with a header line
+     */
+    public String toCsv() {
+        return "nodes,object_bytes,compact_bytes,estimated_compact_bytes,object_bytes_per_node,compact_bytes_per_node,"
+                + "ratio\n" + String.format(Locale.ROOT, "%d,%d,%d,%d,%.1f,%.1f,%.2f%n", nodes, object_bytes,
+                compact_bytes, estimated_bytes, (double) object_bytes / nodes, (double) compact_bytes / nodes,
+                getRatio());
+    }
+
+    /**
+     * @return the report as a JSON object
+     */
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"nodes\":%d,\"object_bytes\":%d,\"compact_bytes\":%d,"
+                + "\"estimated_compact_bytes\":%d,\"object_bytes_per_node\":%.1f,\"compact_bytes_per_node\":%.1f,"
+                + "\"ratio\":%.2f}", nodes, object_bytes, compact_bytes, estimated_bytes, (double) object_bytes / nodes,
+                (double) compact_bytes / nodes, getRatio());
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * Prints the footprint comparison as CSV.
+     * @param args number of Nodes, 1 000 000 by default
+     */
+    public static void main(String[] args) {
+        int nodes = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.print(measure(nodes).toCsv());
+    }
+}
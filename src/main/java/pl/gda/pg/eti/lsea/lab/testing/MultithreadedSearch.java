@@ -1,152 +1,427 @@
 package pl.gda.pg.eti.lsea.lab.testing;
 
+import pl.gda.pg.eti.lsea.lab.Folder;
 import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.SearchTerm;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
- * Class used to test the speed of multithreaded search on a list of Nodes. Divides list based on number of threads and
- * assigns each thread to a segment. Repeats the operation with the number of threads ranging from 1 to max_threads.
- * 
+ * Reusable multithreaded search service over a folder structure. Searches run on a fixed pool of worker threads owned
+ * by the service. The structure is cut into work units (whole subtrees, or single large Folders) and a pluggable
+ * {@link Partitioning} strategy decides which worker searches which unit. Every unit's hits go to a slot written by a
+ * single worker only, so no hit ever passes through a lock, and the slots are merged in structure order at the end.
+ *
+ * {@link #benchmark(Folder, Predicate, Partitioning, int)} repeats a search with 1 to max_threads workers and returns
+ * throughput and speedup as a {@link ScalingReport}.
+ *
  * @author Tomasz Wierciński
  */
-public class MultithreadedSearch {
+public class MultithreadedSearch implements AutoCloseable {
 
-    private int max_threads; // Maximum number of used threads.
-    private ArrayList<Node> results; // results of search - list of found Nodes
-    private ArrayList<Node> list; // list of Nodes to search in
-    private String term; // search term
+    /**
+     * A piece of work handed to a worker - either a whole subtree, or a single Folder without its children (used for
+     * Folders too large to be a single unit, whose children become units of their own).
+     */
+    public static class WorkUnit {
+        private final Node node; // Node the unit starts at
+        private final boolean subtree; // true if the whole structure below the Node belongs to the unit
 
-    //region Constructors
-    public MultithreadedSearch(String term, ArrayList<Node> list) {
-        this(10, term, list);
+        WorkUnit(Node node, boolean subtree) {
+            this.node = node;
+            this.subtree = subtree;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+
+        /**
+         * @return number of Nodes in the unit
+         */
+        public int size() {
+            return subtree ? node.getSubtreeSize() : 1;
+        }
     }
-    public MultithreadedSearch(int max_threads, String term, ArrayList<Node> list) {
-        this.max_threads = max_threads;
-        this.term = term;
-        this.list = list;
-        results = new ArrayList<>();
+
+    /**
+     * Decides which worker searches which work unit.
+     */
+    public interface Partitioning {
+
+        /**
+         * Cuts the structure into work units, in structure order.
+         * @param root root of the searched structure
+         * @param workers number of workers
+         * @return list of work units
+         */
+        List<WorkUnit> split(Folder root, int workers);
+
+        /**
+         * Assigns work units to workers.
+         * @param units work units returned by {@link #split(Folder, int)}
+         * @param workers number of workers
+         * @return schedule the workers take their units from
+         */
+        Schedule plan(List<WorkUnit> units, int workers);
     }
-    //endregion
 
-    //region Mutators
-    synchronized private void addNode(Node node) {
-        results.add(node);
+    /**
+     * Source of work units for the workers. Called concurrently, each worker passing its own number.
+     */
+    public interface Schedule {
+
+        /**
+         * @param worker number of the asking worker, from 0
+         * @return index of the next unit the worker should search, or -1 if there is no more work for it
+         */
+        int next(int worker);
     }
-    //endregion
 
     /**
-     * Divides a list based on number of threads and assigns each thread to a segment of the list. Repeats the
-     * operation with the number of threads ranging from 1 to max_threads. Prints out a list of times for each number
-     * of threads.
+     * Built-in partitioning strategies.
      */
-    public void search() {
-
-        List<Future> futures = new ArrayList<>(); // list of futures for each thread in pool
-        ArrayList<Thread> thread_list = new ArrayList<>(); // list of threads
-        ArrayList<Long> times = new ArrayList<Long>(); // list of times for each thread number
-
-        int size; // size of sublist
-        ArrayList<List<Node>> sublists = new ArrayList<>(); // list of sublists
-
-        for (int i = 1; i <= max_threads; i++) {
-            // clear all lists
-            results.clear();
-            futures.clear();
-            sublists.clear();
-            thread_list.clear();
-
-            // prepare sublists
-            size = (int) Math.ceil(list.size() / (float)i);
-            for (int start = 0; start < list.size(); start += size) {
-                int end = Math.min(start + size, list.size());
-                sublists.add(list.subList(start, end));
+    public enum Strategy implements Partitioning {
+        /**
+         * Units are cut into equal contiguous chunks, one per worker, up front.
+         */
+        STATIC_CHUNKS {
+            @Override
+            public List<WorkUnit> split(Folder root, int workers) {
+                return splitBySize(root, Math.max(1, root.getSubtreeSize() / (workers * 8)));
             }
 
-            // print messages
-            System.out.println("INFO: Created " + sublists.size() + " sublists for " + i + " threads.");
-            System.out.print("INFO: Elements in sublists: [");
-            for (List<Node> l : sublists) System.out.print(" " + l.size());
-            System.out.println(" ]");
-
-            // add all threads to list and run them on prepared sublists
-            long start = System.currentTimeMillis();
-            for (int j = 0; j < i; j++) {
-                Thread new_thread = new Thread(new SearchRunnable(sublists.get(j)));
-                thread_list.add(new_thread);
-                new_thread.run();
+            @Override
+            public Schedule plan(List<WorkUnit> units, int workers) {
+                long total = 0;
+                for (WorkUnit unit : units)
+                    total += unit.size();
+
+                // cut where the running number of Nodes crosses the next 1/workers of the total
+                int[][] assigned = new int[workers][];
+                long running = 0;
+                int start = 0, u = 0;
+                for (int w = 0; w < workers; w++) {
+                    long limit = total * (w + 1) / workers;
+                    while (u < units.size() && (running < limit || w == workers - 1))
+                        running += units.get(u++).size();
+                    assigned[w] = range(start, u);
+                    start = u;
+                }
+                return new FixedSchedule(assigned);
+            }
+        },
+        /**
+         * Units are dealt out to per-worker deques. A worker takes units from the front of its own deque, and once it
+         * runs dry steals from the back of the other workers' deques.
+         */
+        WORK_STEALING {
+            @Override
+            public List<WorkUnit> split(Folder root, int workers) {
+                return splitBySize(root, Math.max(1, root.getSubtreeSize() / (workers * 32)));
+            }
+
+            @Override
+            public Schedule plan(List<WorkUnit> units, int workers) {
+                ArrayList<ConcurrentLinkedDeque<Integer>> deques = new ArrayList<>(workers);
+                int block = (int) Math.ceil(units.size() / (double) workers);
+                for (int w = 0; w < workers; w++) {
+                    ConcurrentLinkedDeque<Integer> deque = new ConcurrentLinkedDeque<>();
+                    for (int u = w * block; u < Math.min(units.size(), (w + 1) * block); u++)
+                        deque.addLast(u);
+                    deques.add(deque);
+                }
+
+                return worker -> {
+                    Integer unit = deques.get(worker).pollFirst();
+                    for (int i = 1; unit == null && i < workers; i++)
+                        unit = deques.get((worker + i) % workers).pollLast();
+                    return unit == null ? -1 : unit;
+                };
+            }
+        },
+        /**
+         * Every child of the root is a single unit. Units are assigned up front, largest first, always to the worker
+         * with the least Nodes so far.
+         */
+        PER_SUBTREE {
+            @Override
+            public List<WorkUnit> split(Folder root, int workers) {
+                ArrayList<WorkUnit> units = new ArrayList<>(root.getChildren().size() + 1);
+                units.add(new WorkUnit(root, false));
+                for (Node child : root.getChildren())
+                    units.add(new WorkUnit(child, true));
+                return units;
             }
 
-            // wait for all threads
-            try {
-                for (Thread t : thread_list) {
-                    t.join();
+            @Override
+            public Schedule plan(List<WorkUnit> units, int workers) {
+                Integer[] by_size = new Integer[units.size()];
+                for (int u = 0; u < by_size.length; u++)
+                    by_size[u] = u;
+                Arrays.sort(by_size, (a, b) -> Integer.compare(units.get(b).size(), units.get(a).size()));
+
+                long[] load = new long[workers];
+                ArrayList<ArrayList<Integer>> lists = new ArrayList<>(workers);
+                for (int w = 0; w < workers; w++)
+                    lists.add(new ArrayList<>());
+                for (int u : by_size) {
+                    int least = 0;
+                    for (int w = 1; w < workers; w++)
+                        if (load[w] < load[least])
+                            least = w;
+                    load[least] += units.get(u).size();
+                    lists.get(least).add(u);
                 }
-            } catch (InterruptedException ex) {
-                System.out.println("EXCEPTION: InterruptedException!");
+
+                int[][] assigned = new int[workers][];
+                for (int w = 0; w < workers; w++)
+                    assigned[w] = lists.get(w).stream().mapToInt(Integer::intValue).toArray();
+                return new FixedSchedule(assigned);
             }
+        };
 
-            long end = System.currentTimeMillis();
-            long duration = end-start;
+        /**
+         * Cuts the structure into units of at most grain Nodes. Folders with larger structures become single-Node
+         * units and their children are cut further.
+         */
+        static List<WorkUnit> splitBySize(Folder root, int grain) {
+            ArrayList<WorkUnit> units = new ArrayList<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                if (node instanceof Folder && node.getSubtreeSize() > grain) {
+                    units.add(new WorkUnit(node, false));
+                    List<Node> children = ((Folder) node).getChildren();
+                    for (int i = children.size() - 1; i >= 0; i--)
+                        stack.push(children.get(i));
+                } else {
+                    units.add(new WorkUnit(node, true));
+                }
+            }
+            return units;
+        }
 
-            System.out.println("INFO: Found " + results.size() + " elements.");
-            System.out.println("INFO: Time taken: " + duration + " milliseconds");
-            times.add(duration);
+        static int[] range(int from, int to) {
+            int[] out = new int[to - from];
+            for (int i = 0; i < out.length; i++)
+                out[i] = from + i;
+            return out;
         }
-        System.out.println("INFO: List of times taken: " + times);
     }
 
-
     /**
-     * Runnable that searches its own segment for term matches.
+     * Schedule with units assigned up front. Every worker only moves its own cursor.
      */
-    private class SearchRunnable implements Runnable {
-
-        private List<Node> list; // assigned list of nodes to search through
+    private static class FixedSchedule implements Schedule {
+        private final int[][] assigned; // unit indices of each worker
+        private final int[] cursor; // next position in each worker's list
 
-        SearchRunnable(List<Node> list) {
-            this.list = list;
+        FixedSchedule(int[][] assigned) {
+            this.assigned = assigned;
+            this.cursor = new int[assigned.length];
         }
 
-        /**
-         * Searches the assigned list for nodes with selected term in title, performs and action and adds it to a shared
-         * ArrayList list via synchronized {@link #addNode(Node)} method.
-         */
         @Override
-        public void run() {
-            for (Node node : list) {
-                if (node.getTitle().toLowerCase().contains(term.toLowerCase())) {
-                    // perform some operations on found nodes
-                    node.getTitle().replaceAll(term, "FOUND");
-                    // add them to the shared list
-                    addNode(node);
+        public int next(int worker) {
+            return cursor[worker] < assigned[worker].length ? assigned[worker][cursor[worker]++] : -1;
+        }
+    }
+
+    //region Fields
+    private final int max_threads; // Maximum number of used threads.
+    private final ExecutorService executor; // worker threads
+    private final AtomicLong visited = new AtomicLong(); // number of Nodes visited by the last finished search
+    //endregion
+
+    //region Constructors
+    public MultithreadedSearch() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    public MultithreadedSearch(int max_threads) {
+        this.max_threads = max_threads;
+        this.executor = Executors.newFixedThreadPool(max_threads, runnable -> {
+            Thread thread = new Thread(runnable, "search-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    //endregion
+
+    //region Getters
+    public int getMaxThreads() {
+        return max_threads;
+    }
+
+    /**
+     * @return number of Nodes visited by the last finished search
+     */
+    public long getVisited() {
+        return visited.get();
+    }
+    //endregion
+
+    /**
+     * Non-case-sensitive search on titles, using all threads and work stealing.
+     * @param root root of the searched structure
+     * @param term String to be searched for
+     * @return ArrayList of matching Nodes in structure order
+     */
+    public ArrayList<Node> searchTitle(Folder root, String term) {
+        SearchTerm compiled = new SearchTerm(term);
+        return search(root, node -> node.matchesTitle(compiled), Strategy.WORK_STEALING, max_threads);
+    }
+
+    /**
+     * Finds all Nodes matching a predicate in the passed structure. The predicate is called concurrently from the
+     * worker threads. The structure must not be modified while the search is running.
+     * @param root root of the searched structure
+     * @param matcher predicate selecting found Nodes
+     * @param partitioning strategy assigning work to workers
+     * @param workers number of workers, at most max_threads
+     * @return ArrayList of matching Nodes in structure order
+     */
+    public ArrayList<Node> search(Folder root, Predicate<Node> matcher, Partitioning partitioning, int workers) {
+        workers = Math.max(1, Math.min(workers, max_threads));
+        List<WorkUnit> units = partitioning.split(root, workers);
+        Schedule schedule = partitioning.plan(units, workers);
+
+        // one list per unit, each filled by exactly one worker
+        List<List<Node>> unit_hits = new ArrayList<>(units.size());
+        for (int u = 0; u < units.size(); u++)
+            unit_hits.add(new ArrayList<>());
+
+        List<Future<Long>> futures = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            futures.add(executor.submit(() -> {
+                long count = 0;
+                for (int u = schedule.next(worker); u >= 0; u = schedule.next(worker)) {
+                    WorkUnit unit = units.get(u);
+                    count += searchUnit(unit, matcher, unit_hits.get(u));
                 }
-            }
+                return count;
+            }));
         }
+
+        // wait for all workers
+        long count = 0;
+        try {
+            for (Future<Long> future : futures)
+                count += future.get();
+        } catch (InterruptedException ex) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Search interrupted.");
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Search worker failed.", ex.getCause());
+        }
+        visited.set(count);
+
+        ArrayList<Node> results = new ArrayList<>();
+        for (List<Node> hits : unit_hits)
+            results.addAll(hits);
+        return results;
     }
 
     /**
-     * Tests multithreaded search on a large randomly generated file structure. Example multithreading usage.
-     * @param args
+     * Sequential depth-first search of one work unit.
+     * @return number of visited Nodes
      */
-    static public void main(String[] args) {
-        int list_length = 1000000; // elements on list
-        ArrayList<Node> node_list = new ArrayList<>(list_length);
+    private static long searchUnit(WorkUnit unit, Predicate<Node> matcher, List<Node> hits) {
+        if (!unit.subtree) {
+            if (matcher.test(unit.node))
+                hits.add(unit.node);
+            return 1;
+        }
 
-        System.out.println("INFO: Generating random Nodes");
-        for (int i = 0; i < list_length / 2; i++) {
-            // generate random folders
-            node_list.add(RandomStructure.generate_folder());
+        long count = 0;
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(unit.node);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            count++;
+            if (matcher.test(node))
+                hits.add(node);
+            if (node instanceof Folder) {
+                List<Node> children = ((Folder) node).getChildren();
+                for (int i = children.size() - 1; i >= 0; i--)
+                    stack.push(children.get(i));
+            }
         }
-        for (int i = 0; i < list_length / 2; i++) {
-            // generate random snippets
-            node_list.add(RandomStructure.generate_snippet());
+        return count;
+    }
+
+    /**
+     * Repeats the search with the number of workers ranging from 1 to max_threads. Each number of workers gets one
+     * warm-up run and the best time out of the given number of repetitions is reported.
+     * @param root root of the searched structure
+     * @param matcher predicate selecting found Nodes
+     * @param partitioning strategy assigning work to workers
+     * @param repetitions timed runs per number of workers
+     * @return throughput and speedup for every number of workers
+     */
+    public ScalingReport benchmark(Folder root, Predicate<Node> matcher, Partitioning partitioning, int repetitions) {
+        ScalingReport report = new ScalingReport(partitioning.toString(), matcher.toString());
+
+        for (int workers = 1; workers <= max_threads; workers++) {
+            search(root, matcher, partitioning, workers);
+            long best = Long.MAX_VALUE;
+            int hits = 0;
+            for (int r = 0; r < Math.max(1, repetitions); r++) {
+                long start = System.nanoTime();
+                hits = search(root, matcher, partitioning, workers).size();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            report.add(new ScalingReport.Row(workers, best, visited.get(), hits));
         }
+        return report;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Tests multithreaded search on a large randomly generated file structure with every partitioning strategy.
+     * Prints out a JSON scaling report per strategy. Example multithreading usage.
+     * @param args optional maximum number of threads
+     */
+    static public void main(String[] args) {
+        int max_threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
 
-        MultithreadedSearch ms = new MultithreadedSearch(10, "Cube", node_list);
-        System.out.println("INFO: Running MultithreadedSearch...\n");
-        ms.search();
+        System.out.println("INFO: Generating random structure...");
+        Folder root = new RandomStructure(12, 6).generate();
+        System.out.println("INFO: Generated " + root.getSubtreeSize() + " Nodes.");
+
+        SearchTerm term = new SearchTerm("cube");
+        Predicate<Node> matcher = new Predicate<>() {
+            @Override
+            public boolean test(Node node) {
+                return node.matchesTitle(term);
+            }
+
+            @Override
+            public String toString() {
+                return "title contains \"cube\"";
+            }
+        };
+
+        try (MultithreadedSearch ms = new MultithreadedSearch(max_threads)) {
+            for (Strategy strategy : Strategy.values())
+                System.out.println(ms.benchmark(root, matcher, strategy, 3).toJson());
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package pl.gda.pg.eti.lsea.lab.testing;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Random;
 import pl.gda.pg.eti.lsea.lab.Folder;
 import pl.gda.pg.eti.lsea.lab.Snippet;
@@ -69,24 +71,36 @@ public class RandomStructure {
     }
     
     /**
-     * Generates a random file structure with a set maximum depth and width.
+     * Generates a random file structure with a set maximum depth and width. Folders are filled from an explicit
+     * stack, so the depth isn't limited by the call stack.
      * @param max_depth maximum depth of structure
      * @return root Folder
      */
     private Folder generate(int max_depth) {
-        Folder folder = generate_folder();
-        
-        if (max_depth > 1) {
+        Folder root = generate_folder();
+        Deque<Folder> folders = new ArrayDeque<>(); // Folders yet to be filled
+        Deque<Integer> depths = new ArrayDeque<>(); // maximum depth left for each of them
+        folders.push(root);
+        depths.push(max_depth);
+
+        while (!folders.isEmpty()) {
+            Folder folder = folders.pop();
+            int depth = depths.pop();
+            if (depth <= 1)
+                continue;
             for (int i = 0; i < max_width; i++) {
                 if (rand.nextDouble() < 0.5) {
                     folder.addChild(generate_snippet());
                 } else {
-                    folder.addChild(generate(max_depth-1));
+                    Folder child = generate_folder();
+                    folder.addChild(child);
+                    folders.push(child);
+                    depths.push(depth - 1);
                 }
             }
         }
         
-        return folder;
+        return root;
     }
     
     /**
@@ -0,0 +1,140 @@
+package pl.gda.pg.eti.lsea.lab.testing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Machine-readable results of a scaling benchmark - throughput and speedup of a search run with 1..N workers. Can be
+ * written out as CSV or JSON.
+ *
+ * @see MultithreadedSearch#benchmark(pl.gda.pg.eti.lsea.lab.Folder, java.util.function.Predicate,
+ * MultithreadedSearch.Partitioning, int)
+ */
+public class ScalingReport {
+
+    /**
+     * Results of runs with a single number of workers.
+     */
+    public static class Row {
+        private final int workers; // number of workers used
+        private final long nanos; // best time out of all repetitions
+        private final long nodes; // number of Nodes visited
+        private final int hits; // number of Nodes found
+
+        Row(int workers, long nanos, long nodes, int hits) {
+            this.workers = workers;
+            this.nanos = nanos;
+            this.nodes = nodes;
+            this.hits = hits;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+        public long getNanos() {
+            return nanos;
+        }
+        public long getNodes() {
+            return nodes;
+        }
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return visited Nodes per second
+         */
+        public double getThroughput() {
+            return nodes * 1e9 / Math.max(1, nanos);
+        }
+    }
+
+    //region Fields
+    private final String strategy; // name of the partitioning strategy
+    private final String query; // description of the benchmarked search
+    private final ArrayList<Row> rows = new ArrayList<>(); // results ordered by number of workers
+    //endregion
+
+    //region Constructors
+    public ScalingReport(String strategy, String query) {
+        this.strategy = strategy;
+        this.query = query;
+    }
+    //endregion
+
+    //region Getters
+    public String getStrategy() {
+        return strategy;
+    }
+    public List<Row> getRows() {
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Speedup of a run compared to the first one (usually the single worker run).
+     * @param row one of the report's rows
+     * @return how many times faster the run was
+     */
+    public double getSpeedup(Row row) {
+        return rows.isEmpty() ? 1.0 : (double) rows.get(0).getNanos() * rows.get(0).getWorkers() / row.getNanos();
+    }
+
+    /**
+     * Speedup divided by the number of workers - 1.0 means perfectly linear scaling.
+     * @param row one of the report's rows
+     * @return parallel efficiency of the run
+     */
+    public double getEfficiency(Row row) {
+        return getSpeedup(row) / row.getWorkers();
+    }
+    //endregion
+
+    void add(Row row) {
+        rows.add(row);
+    }
+
+    /**
+     * @return the report as CSV, one line per number of workers, with a header line
+     */
+    public String toCsv() {
+        StringBuilder out = new StringBuilder(
+                "strategy,workers,millis,nodes,hits,throughput_nodes_per_s,speedup,efficiency\n");
+        for (Row row : rows)
+            out.append(String.format(Locale.ROOT, "%s,%d,%.3f,%d,%d,%.0f,%.3f,%.3f%n", strategy, row.getWorkers(),
+                    row.getNanos() / 1e6, row.getNodes(), row.getHits(), row.getThroughput(), getSpeedup(row),
+                    getEfficiency(row)));
+        return out.toString();
+    }
+
+    /**
+     * @return the report as a JSON object
+     */
+    public String toJson() {
+        StringBuilder out = new StringBuilder();
+        out.append("{\"strategy\":\"").append(escape(strategy))
+                .append("\",\"query\":\"").append(escape(query))
+                .append("\",\"runs\":[");
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            if (i > 0)
+                out.append(',');
+            out.append(String.format(Locale.ROOT,
+                    "{\"workers\":%d,\"millis\":%.3f,\"nodes\":%d,\"hits\":%d,\"throughput\":%.0f,"
+                            + "\"speedup\":%.3f,\"efficiency\":%.3f}",
+                    row.getWorkers(), row.getNanos() / 1e6, row.getNodes(), row.getHits(), row.getThroughput(),
+                    getSpeedup(row), getEfficiency(row)));
+        }
+        return out.append("]}").toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
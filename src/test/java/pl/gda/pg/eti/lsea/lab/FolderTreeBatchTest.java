@@ -0,0 +1,104 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks how {@link FolderTree#batch(java.util.function.Consumer)} applies changes and reports them.
+ */
+class FolderTreeBatchTest {
+
+    private final FolderTree tree = new FolderTree();
+    private final Folder root = (Folder) tree.getRoot();
+    private final List<String> events = new ArrayList<>(); // kind of every received event, in order
+    private final List<TreeModelEvent> inserted = new ArrayList<>(); // received "inserted" events
+
+    @BeforeEach
+    void listen() {
+        tree.addTreeModelListener(new TreeModelListener() {
+            @Override
+            public void treeNodesChanged(TreeModelEvent e) {
+                events.add("changed");
+            }
+
+            @Override
+            public void treeNodesInserted(TreeModelEvent e) {
+                events.add("inserted");
+                inserted.add(e);
+            }
+
+            @Override
+            public void treeNodesRemoved(TreeModelEvent e) {
+                events.add("removed");
+            }
+
+            @Override
+            public void treeStructureChanged(TreeModelEvent e) {
+                events.add("structure");
+            }
+        });
+    }
+
+    @Test
+    void insertsUnderOneParentAreReportedOnce() {
+        tree.batch(changes -> {
+            for (int i = 0; i < 10; i++)
+                changes.insertNodeInto(new Snippet("snippet" + i, "java"), root);
+        });
+        assertEquals(List.of("inserted"), events);
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, inserted.get(0).getChildIndices());
+        assertEquals(10, root.getChildren().size());
+        assertEquals(10, tree.searchTitle("snippet").size());
+    }
+
+    @Test
+    void changesAreReportedWhenTheBatchEnds() {
+        Folder folder = new Folder("folder");
+        tree.insertNodeInto(folder, root);
+        events.clear();
+        tree.batch(changes -> {
+            changes.insertNodeInto(new Snippet("inner", "java"), folder);
+            tree.batch(nested -> nested.rename(folder, "renamed"));
+            folder.setDateEdited(new Date(0));
+            assertTrue(events.isEmpty());
+            assertEquals("folder", folder.getTitle());
+        });
+        assertEquals(List.of("inserted", "changed"), events);
+        assertEquals("renamed", folder.getTitle());
+        assertEquals(List.of(folder), tree.searchTitle("renamed"));
+    }
+
+    @Test
+    void recordedChangesAreDroppedWhenTheBatchThrows() {
+        Folder kept = new Folder("kept");
+        tree.insertNodeInto(kept, root);
+        events.clear();
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> tree.batch(changes -> {
+            changes.insertNodeInto(new Snippet("lost", "java"), root);
+            changes.rename(kept, "lost too");
+            kept.setDateEdited(new Date(0));
+            throw new IllegalStateException("failed");
+        }));
+        assertEquals("failed", thrown.getMessage());
+        assertEquals(List.of(kept), root.getChildren());
+        assertEquals("kept", kept.getTitle());
+        assertTrue(tree.searchTitle("lost").isEmpty());
+        // the edit made through a setter was applied, so it's still reported
+        assertEquals(List.of("changed"), events);
+        assertEquals(List.of(kept), tree.searchEdited(new Date(0), new Date(1)));
+
+        tree.batch(changes -> changes.insertNodeInto(new Snippet("after", "java"), root));
+        assertFalse(tree.searchTitle("after").isEmpty());
+    }
+}
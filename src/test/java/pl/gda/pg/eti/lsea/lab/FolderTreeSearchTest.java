@@ -0,0 +1,197 @@
+package pl.gda.pg.eti.lsea.lab;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import javax.swing.tree.TreePath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the indexed searches of {@link FolderTree} find the same Nodes as looking at every Node, while the tree
+ * keeps changing under them.
+ */
+class FolderTreeSearchTest {
+
+    private static final String[] WORDS = {"cube", "Sort", "map", "ŁÓDŹ", "ΣΊΣΥΦΟΣ", "İstanbul", "Kelvin", "x"};
+    private static final String[] LANGS = {"java", "Java ", "python", "C"};
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int ROUNDS = 5; // rounds of changes, searches are checked after every one
+
+    private final Random random = new Random(42);
+    private FolderTree tree;
+
+    @BeforeEach
+    void build() {
+        tree = new FolderTree();
+        for (int i = 0; i < 300; i++)
+            insertRandom();
+    }
+
+    @Test
+    void titleSearchesMatchScan() {
+        for (int round = 0; round < ROUNDS; round++) {
+            changeRandomly(60);
+            for (String term : terms()) {
+                assertEquals(scan(node -> fold(node.getTitle()).contains(fold(term))),
+                        new HashSet<>(tree.searchTitle(term)), "title \"" + term + "\"");
+                assertEquals(scan(node -> fold(node.getTitle()).startsWith(fold(term))),
+                        new HashSet<>(tree.searchTitlePrefix(term)), "prefix \"" + term + "\"");
+            }
+        }
+    }
+
+    @Test
+    void contentSearchMatchesScan() {
+        for (int round = 0; round < ROUNDS; round++) {
+            changeRandomly(60);
+            for (String term : terms())
+                assertEquals(scan(node -> node instanceof Snippet && fold(((Snippet) node).get()).contains(fold(term))),
+                        new HashSet<>(tree.searchContent(term)), "content \"" + term + "\"");
+        }
+    }
+
+    @Test
+    void fuzzySearchMatchesScan() {
+        for (int round = 0; round < ROUNDS; round++) {
+            changeRandomly(60);
+            for (String term : terms())
+                for (int distance = 0; distance <= 2; distance++) {
+                    int max_distance = distance;
+                    assertEquals(scan(node -> distance(fold(node.getTitle()), fold(term)) <= max_distance),
+                            new HashSet<>(tree.searchTitleFuzzy(term, distance)), "fuzzy \"" + term + "\"");
+                }
+        }
+    }
+
+    @Test
+    void languageAndDateSearchesMatchScan() {
+        for (int round = 0; round < ROUNDS; round++) {
+            changeRandomly(60);
+            for (String lang : LANGS)
+                assertEquals(scan(node -> node instanceof Snippet
+                                && fold(((Snippet) node).getLang().trim()).equals(fold(lang.trim()))),
+                        new HashSet<>(tree.searchLanguage(lang)), "language \"" + lang + "\"");
+            Date from = new Date(random.nextInt(100) * DAY);
+            Date to = new Date(from.getTime() + random.nextInt(30) * DAY);
+            assertEquals(scan(node -> node.getTimeCreated() >= from.getTime() && node.getTimeCreated() < to.getTime()),
+                    new HashSet<>(tree.searchCreated(from, to)), "created " + from + " - " + to);
+        }
+    }
+
+    //region Helpers
+    /**
+     * @return Nodes of the tree accepted by the filter, the root Folder included
+     */
+    private Set<Node> scan(Predicate<Node> filter) {
+        Set<Node> found = new HashSet<>();
+        Node root = (Node) tree.getRoot();
+        if (filter.test(root))
+            found.add(root);
+        for (Node node : tree.snapshot())
+            if (filter.test(node))
+                found.add(node);
+        return found;
+    }
+
+    /**
+     * @return search terms - fixed words and pieces of titles currently in the tree
+     */
+    private List<String> terms() {
+        List<String> terms = new ArrayList<>(List.of(WORDS));
+        terms.add("cub");
+        terms.add("σ");
+        terms.add("i̇");
+        ArrayList<Node> nodes = tree.snapshot();
+        for (int i = 0; i < 10; i++) {
+            String title = nodes.get(random.nextInt(nodes.size())).getTitle();
+            int from = random.nextInt(title.length());
+            terms.add(title.substring(from, Math.min(title.length(), from + 1 + random.nextInt(5))));
+        }
+        return terms;
+    }
+
+    private static String fold(String text) {
+        return text.toLowerCase();
+    }
+
+    private static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++)
+            previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + ((a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private String randomText() {
+        StringBuilder text = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+        for (int i = random.nextInt(3); i > 0; i--)
+            text.append(random.nextBoolean() ? " " : "_").append(WORDS[random.nextInt(WORDS.length)]);
+        return text.append(random.nextInt(10)).toString();
+    }
+
+    private Folder randomFolder() {
+        ArrayList<Folder> folders = new ArrayList<>();
+        folders.add((Folder) tree.getRoot());
+        for (Node node : tree.snapshot())
+            if (node instanceof Folder)
+                folders.add((Folder) node);
+        return folders.get(random.nextInt(folders.size()));
+    }
+
+    private void insertRandom() {
+        Node node = random.nextInt(3) == 0 ? new Folder(randomText())
+                : new Snippet(randomText(), LANGS[random.nextInt(LANGS.length)], randomText());
+        node.setDateCreated(new Date(random.nextInt(120) * DAY));
+        tree.insertNodeInto(node, randomFolder());
+    }
+
+    /**
+     * Inserts, removes, renames and edits random Nodes, through the model and through Node setters.
+     */
+    private void changeRandomly(int changes) {
+        for (int i = 0; i < changes; i++) {
+            ArrayList<Node> nodes = tree.snapshot();
+            Node node = nodes.get(random.nextInt(nodes.size()));
+            switch (random.nextInt(6)) {
+                case 0:
+                    insertRandom();
+                    break;
+                case 1:
+                    tree.removeChild(node, (Folder) node.getParent());
+                    break;
+                case 2:
+                    tree.valueForPathChanged(new TreePath(node), randomText());
+                    break;
+                case 3:
+                    node.setTitle(randomText());
+                    break;
+                case 4:
+                    node.setDateCreated(new Date(random.nextInt(120) * DAY));
+                    break;
+                default:
+                    if (node instanceof Snippet) {
+                        ((Snippet) node).set(randomText());
+                        ((Snippet) node).setLang(LANGS[random.nextInt(LANGS.length)]);
+                    }
+            }
+        }
+    }
+    //endregion
+}
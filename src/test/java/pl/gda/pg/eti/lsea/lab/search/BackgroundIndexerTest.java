@@ -0,0 +1,141 @@
+package pl.gda.pg.eti.lsea.lab.search;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.swing.event.TreeModelEvent;
+import org.junit.jupiter.api.Test;
+import pl.gda.pg.eti.lsea.lab.Folder;
+import pl.gda.pg.eti.lsea.lab.Node;
+import pl.gda.pg.eti.lsea.lab.Snippet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that reads through {@link BackgroundIndexer} see every change queued before them, and what happens when
+ * indexing fails.
+ */
+class BackgroundIndexerTest {
+
+    /**
+     * Title index failing on Nodes with a given title, a given number of times.
+     */
+    private static class FailingIndex extends TitleIndex {
+        private final String title; // title of the Nodes the index fails on
+        private final Throwable failure; // thrown on those Nodes, an Error or a RuntimeException
+        private int failures; // number of failures left
+
+        FailingIndex(String title, Throwable failure, int failures) {
+            this.title = title;
+            this.failure = failure;
+            this.failures = failures;
+        }
+
+        @Override
+        public void addNode(Node node) {
+            if (node.getTitle().equals(title) && failures-- > 0) {
+                if (failure instanceof Error)
+                    throw (Error) failure;
+                throw (RuntimeException) failure;
+            }
+            super.addNode(node);
+        }
+    }
+
+    private final Folder root = new Folder("base");
+    private final BackgroundIndexer indexer = new BackgroundIndexer(root);
+
+    @Test
+    void readSeesEveryQueuedChange() {
+        TitleIndex index = indexer.register(new TitleIndex());
+        for (int i = 0; i < 500; i++)
+            insert(new Snippet("snippet" + i, "java"), root);
+        assertEquals(500, indexer.read(() -> index.search("snippet")).size());
+
+        indexer.awaitCaughtUp();
+        assertEquals(0, indexer.getPendingCount());
+    }
+
+    @Test
+    void largeStructuresAreIndexedInChunks() {
+        TitleIndex index = indexer.register(new TitleIndex());
+        indexer.read(() -> null);
+        Folder big = new Folder("big");
+        int count = 3 * BackgroundIndexer.MAX_CHUNK + 5;
+        for (int i = 0; i < count; i++)
+            big.addChild(new Snippet("snippet" + i, "java"));
+        insert(big, root);
+        assertEquals(count, indexer.read(() -> index.search("snippet")).size());
+
+        remove(big, root);
+        assertTrue(indexer.read(() -> index.search("snippet")).isEmpty());
+    }
+
+    @Test
+    void newIndexIsFilledWithTheStructure() {
+        for (int i = 0; i < 2 * BackgroundIndexer.MAX_CHUNK; i++)
+            insert(new Snippet("snippet" + i, "java"), root);
+        TitleIndex index = indexer.register(new TitleIndex());
+        assertEquals(2 * BackgroundIndexer.MAX_CHUNK, indexer.read(() -> index.search("snippet")).size());
+    }
+
+    @Test
+    void readHoldingTheLockFillsNewIndex() {
+        insert(new Snippet("found", "java"), root);
+        synchronized (indexer.getLock()) {
+            TitleIndex index = indexer.register(new TitleIndex());
+            assertEquals(List.of("found"), titles(indexer.read(() -> index.search("found"))));
+        }
+    }
+
+    @Test
+    void failedBatchRebuildsIndexes() {
+        FailingIndex index = indexer.register(new FailingIndex("boom", new IllegalStateException("boom"), 1));
+        insert(new Folder("boom"), root);
+        insert(new Folder("ok"), root);
+        List<Node> found = indexer.read(() -> index.search("o"));
+        assertEquals(new HashSet<>(List.of("boom", "ok")), new HashSet<>(titles(found)));
+    }
+
+    @Test
+    void errorFailsReadsInsteadOfBlocking() {
+        OutOfMemoryError error = new OutOfMemoryError("test");
+        FailingIndex index = indexer.register(new FailingIndex("boom", error, 1));
+        indexer.read(() -> null);
+        insert(new Folder("boom"), root);
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> indexer.read(() -> index.search("boom")));
+        assertInstanceOf(OutOfMemoryError.class, thrown.getCause());
+        assertThrows(IllegalStateException.class, indexer::awaitCaughtUp);
+    }
+
+    //region Helpers
+    /**
+     * Inserts a Node the way FolderTree does - under the lock, then reporting it.
+     */
+    private void insert(Node child, Folder parent) {
+        synchronized (indexer.getLock()) {
+            parent.addChild(child);
+        }
+        indexer.treeNodesInserted(new TreeModelEvent(this, parent.getPathArray(),
+                new int[] {parent.indexOf(child)}, new Object[] {child}));
+    }
+
+    private void remove(Node child, Folder parent) {
+        int index;
+        synchronized (indexer.getLock()) {
+            index = parent.indexOf(child);
+            parent.removeChild(child);
+        }
+        indexer.treeNodesRemoved(new TreeModelEvent(this, parent.getPathArray(), new int[] {index},
+                new Object[] {child}));
+    }
+
+    private static List<String> titles(List<Node> nodes) {
+        return nodes.stream().map(Node::getTitle).collect(Collectors.toList());
+    }
+    //endregion
+}